@@ -25,6 +25,7 @@
 
 package me.lucko.commodore;
 
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.suggestion.SuggestionProvider;
 import com.mojang.brigadier.tree.ArgumentCommandNode;
 import com.mojang.brigadier.tree.CommandNode;
@@ -32,135 +33,628 @@ import com.mojang.brigadier.tree.LiteralCommandNode;
 import com.mojang.brigadier.tree.RootCommandNode;
 
 import org.bukkit.command.Command;
-import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.plugin.Plugin;
 
-import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 abstract class AbstractCommodore implements Commodore {
 
-    // ArgumentCommandNode#customSuggestions field
-    protected static final Field CUSTOM_SUGGESTIONS_FIELD;
-
-    // CommandNode#command
-    protected static final Field COMMAND_EXECUTE_FUNCTION_FIELD;
-
-    // CommandNode#children, CommandNode#literals, CommandNode#arguments fields
-    protected static final Field CHILDREN_FIELD;
-    protected static final Field LITERALS_FIELD;
-    protected static final Field ARGUMENTS_FIELD;
-
-    // An array of the CommandNode fields above: [#children, #literals, #arguments]
-    protected static final Field[] CHILDREN_FIELDS;
-
     // Dummy instance of Command used to ensure the executable bit gets set on
     // mock commands when they're encoded into data sent to the client
     protected static final com.mojang.brigadier.Command<?> DUMMY_COMMAND;
     protected static final SuggestionProvider<?> DUMMY_SUGGESTION_PROVIDER;
 
     static {
-        try {
-            CUSTOM_SUGGESTIONS_FIELD = ArgumentCommandNode.class.getDeclaredField("customSuggestions");
-            CUSTOM_SUGGESTIONS_FIELD.setAccessible(true);
+        // ensure the brigadier fields we need are accessible
+        CommandNodeAccessor.ensureSetup();
+
+        // should never be called
+        // if ReflectionCommodore: bukkit handling should override
+        // if PaperCommodore: this is only sent to the client, not used for actual command handling
+        DUMMY_COMMAND = (ctx) -> { throw new UnsupportedOperationException(); };
+        // should never be called - only used in clientbound root node, and the server impl will pass anything through
+        // SuggestionProviders#safelySwap (swap it for the ASK_SERVER provider) before sending
+        DUMMY_SUGGESTION_PROVIDER = (context, builder) -> { throw new UnsupportedOperationException(); };
+    }
+
+    protected final Plugin plugin;
+    protected final CommodoreOptions options;
+
+    // shares identical subtrees between registered nodes, or null if disabled
+    private final NodeInterner interner;
+    protected final ResendScheduler resendScheduler;
+    // caches the results of permission tests, or null if disabled
+    private final PermissionCache permissionCache;
+    private final Consumer<UUID> permissionCacheListener;
 
-            COMMAND_EXECUTE_FUNCTION_FIELD = CommandNode.class.getDeclaredField("command");
-            COMMAND_EXECUTE_FUNCTION_FIELD.setAccessible(true);
+    // registrations, indexed by command and by the name of each registered node
+    private final Map<Command, Registration> registrationsByCommand = new HashMap<>();
+    private final Map<String, Registration> registrationsByName = new HashMap<>();
+
+    AbstractCommodore(Plugin plugin, CommodoreOptions options) {
+        this.plugin = plugin;
+        this.options = options;
+        this.interner = options.isInternNodes() ? new NodeInterner() : null;
+        this.resendScheduler = new ResendScheduler(this, options.getResendsPerTick());
+        this.permissionCache = options.getPermissionCache();
+        this.permissionCacheListener = this.resendScheduler::invalidate;
+        if (this.permissionCache != null) {
+            this.permissionCache.addInvalidationListener(this.permissionCacheListener);
+        }
+        this.plugin.getServer().getPluginManager().registerEvents(new PluginDisableListener(this), this.plugin);
+        this.plugin.getServer().getPluginManager().registerEvents(this.resendScheduler, this.plugin);
+    }
+
+    @Override
+    public void register(LiteralCommandNode<?> node) {
+        Objects.requireNonNull(node, "node");
+        register(Collections.singletonList(new Registration(null, null, Collections.singletonList(node), null)));
+    }
+
+    @Override
+    public void register(Command command, Supplier<? extends LiteralCommandNode<?>> nodeSupplier, Predicate<? super Player> permissionTest) {
+        Objects.requireNonNull(command, "command");
+        Objects.requireNonNull(nodeSupplier, "nodeSupplier");
+        Objects.requireNonNull(permissionTest, "permissionTest");
+        Predicate<? super Player> test = cachePermissionTest(permissionTest);
+
+        // the aliases are resolved now, so the registration can be indexed before the node is built
+        AliasPlan aliases = AliasPlan.of(command);
+        Supplier<List<LiteralCommandNode<?>>> factory = () -> {
+            LiteralCommandNode<?> node = Objects.requireNonNull(nodeSupplier.get(), "node");
+            return prepareNodes(command, aliases, node, new IdentityHashMap<>());
+        };
+        register(Collections.singletonList(new Registration(command, aliases, factory, test)));
+    }
+
+    @Override
+    public void register(Command command, LiteralCommandNode<?> node, Predicate<? super Player> permissionTest) {
+        Objects.requireNonNull(command, "command");
+        Objects.requireNonNull(node, "node");
+        Objects.requireNonNull(permissionTest, "permissionTest");
+
+        boolean recordMetrics = CommodoreMetrics.INSTANCE.isEnabled();
+        long start = recordMetrics ? System.nanoTime() : 0;
+        List<Registration> registrations = Collections.singletonList(prepare(command, node, cachePermissionTest(permissionTest), new IdentityHashMap<>()));
+        register(registrations);
+        if (recordMetrics) {
+            recordRegistration(start, registrations);
+        }
+    }
 
-            CHILDREN_FIELD = CommandNode.class.getDeclaredField("children");
-            LITERALS_FIELD = CommandNode.class.getDeclaredField("literals");
-            ARGUMENTS_FIELD = CommandNode.class.getDeclaredField("arguments");
-            CHILDREN_FIELDS = new Field[]{CHILDREN_FIELD, LITERALS_FIELD, ARGUMENTS_FIELD};
-            for (Field field : CHILDREN_FIELDS) {
-                field.setAccessible(true);
+    @Override
+    public void registerAll(Map<? extends Command, ? extends LiteralCommandNode<?>> nodes) {
+        Objects.requireNonNull(nodes, "nodes");
+
+        // shared between all nodes in the batch, so subtrees shared between them are only prepared once
+        Map<SuggestionProvider<?>, Set<CommandNode<?>>> prepared = new IdentityHashMap<>();
+
+        boolean recordMetrics = CommodoreMetrics.INSTANCE.isEnabled();
+        long start = recordMetrics ? System.nanoTime() : 0;
+        List<Registration> registrations = new ArrayList<>(nodes.size());
+        for (Map.Entry<? extends Command, ? extends LiteralCommandNode<?>> entry : nodes.entrySet()) {
+            Command command = Objects.requireNonNull(entry.getKey(), "command");
+            LiteralCommandNode<?> node = Objects.requireNonNull(entry.getValue(), "node");
+            registrations.add(prepare(command, node, cachePermissionTest(command::testPermissionSilent), prepared));
+        }
+        register(registrations);
+        if (recordMetrics) {
+            recordRegistration(start, registrations);
+        }
+    }
+
+    private void register(List<Registration> registrations) {
+        // registrations replace any existing registration for the same command (or, for
+        // plain nodes, the same name), so re-registering a command doesn't accumulate dead nodes
+        Set<Registration> batch = Collections.newSetFromMap(new IdentityHashMap<>());
+        batch.addAll(registrations);
+
+        // the change is applied under the same lock as the index, so concurrent
+        // registrations are applied in the same order they were indexed
+        synchronized (this.registrationsByName) {
+            List<Registration> replaced = new ArrayList<>();
+            for (Registration registration : registrations) {
+                Registration existing = registration.command != null
+                        ? this.registrationsByCommand.get(registration.command)
+                        : this.registrationsByName.get(registration.names.get(0));
+
+                if (existing != null && existing.command == registration.command && removeIndex(existing)) {
+                    // if the existing registration is part of the same batch, just don't register it
+                    if (!batch.remove(existing)) {
+                        replaced.add(existing);
+                    }
+                }
+                addIndex(registration);
             }
 
-            // should never be called
-            // if ReflectionCommodore: bukkit handling should override
-            // if PaperCommodore: this is only sent to the client, not used for actual command handling
-            DUMMY_COMMAND = (ctx) -> { throw new UnsupportedOperationException(); };
-            // should never be called - only used in clientbound root node, and the server impl will pass anything through
-            // SuggestionProviders#safelySwap (swap it for the ASK_SERVER provider) before sending
-            DUMMY_SUGGESTION_PROVIDER = (context, builder) -> { throw new UnsupportedOperationException(); };
+            List<Registration> toRegister = new ArrayList<>(registrations.size());
+            for (Registration registration : registrations) {
+                if (batch.contains(registration)) {
+                    toRegister.add(registration);
+                }
+            }
+            releaseInterned(replaced);
+            replacePrepared(replaced, toRegister);
+        }
+    }
+
+    @Override
+    public boolean unregister(Command command) {
+        Objects.requireNonNull(command, "command");
+        synchronized (this.registrationsByName) {
+            Registration registration = this.registrationsByCommand.get(command);
+            if (registration == null || !removeIndex(registration)) {
+                return false;
+            }
+            List<Registration> registrations = Collections.singletonList(registration);
+            releaseInterned(registrations);
+            unregisterPrepared(registrations);
+        }
+        return true;
+    }
 
-        } catch (ReflectiveOperationException e) {
-            throw new ExceptionInInitializerError(e);
+    @Override
+    public boolean unregister(String literal) {
+        Objects.requireNonNull(literal, "literal");
+        synchronized (this.registrationsByName) {
+            Registration registration = this.registrationsByName.get(literal);
+            if (registration == null || !removeIndex(registration)) {
+                return false;
+            }
+            List<Registration> registrations = Collections.singletonList(registration);
+            releaseInterned(registrations);
+            unregisterPrepared(registrations);
         }
+        return true;
     }
 
-    @SuppressWarnings({"unchecked", "rawtypes"})
-    protected static void removeChild(RootCommandNode root, String name) {
-        try {
-            for (Field field : CHILDREN_FIELDS) {
-                Map<String, ?> children = (Map<String, ?>) field.get(root);
-                children.remove(name);
+    @Override
+    public void requestResend(Player player) {
+        Objects.requireNonNull(player, "player");
+        this.resendScheduler.request(player);
+    }
+
+    @Override
+    public void requestResendAll() {
+        this.resendScheduler.requestAll();
+    }
+
+    /**
+     * Unregisters everything registered with this instance.
+     */
+    void unregisterAll() {
+        synchronized (this.registrationsByName) {
+            List<Registration> registrations = new ArrayList<>(getRegistrations());
+            this.registrationsByCommand.clear();
+            this.registrationsByName.clear();
+            if (this.interner != null) {
+                this.interner.clear();
             }
-        } catch (ReflectiveOperationException e) {
-            throw new RuntimeException(e);
+            if (!registrations.isEmpty()) {
+                unregisterPrepared(registrations);
+            }
+        }
+    }
+
+    /**
+     * Gets the registrations currently held by this instance.
+     *
+     * @return the registrations
+     */
+    protected Collection<Registration> getRegistrations() {
+        synchronized (this.registrationsByName) {
+            Set<Registration> registrations = Collections.newSetFromMap(new IdentityHashMap<>());
+            registrations.addAll(this.registrationsByCommand.values());
+            registrations.addAll(this.registrationsByName.values());
+            return registrations;
         }
     }
 
-    protected static void setRequiredHackyFieldsRecursively(CommandNode<?> node, SuggestionProvider<?> suggestionProvider) {
-        // set command execution function so the server sets the executable flag on the command
+    /**
+     * Releases the interned nodes of registrations which are being unregistered.
+     *
+     * @param registrations the registrations
+     */
+    private void releaseInterned(List<Registration> registrations) {
+        if (this.interner == null) {
+            return;
+        }
+        for (Registration registration : registrations) {
+            // registrations which were never built weren't interned
+            if (registration.isBuilt()) {
+                for (LiteralCommandNode<?> node : registration.nodes()) {
+                    this.interner.release(node);
+                }
+            }
+        }
+    }
+
+    private void addIndex(Registration registration) {
+        if (registration.command != null) {
+            this.registrationsByCommand.put(registration.command, registration);
+        }
+        for (String name : registration.names) {
+            this.registrationsByName.put(name, registration);
+        }
+    }
+
+    private boolean removeIndex(Registration registration) {
+        boolean removed = false;
+        if (registration.command != null) {
+            removed = this.registrationsByCommand.remove(registration.command, registration);
+        }
+        for (String name : registration.names) {
+            removed |= this.registrationsByName.remove(name, registration);
+        }
+        return removed;
+    }
+
+    private static void recordRegistration(long start, List<Registration> registrations) {
+        int nodes = 0;
+        for (Registration registration : registrations) {
+            if (registration.isBuilt()) {
+                nodes += registration.nodes().size();
+            }
+        }
+        CommodoreMetrics.INSTANCE.recordRegistration(System.nanoTime() - start, nodes);
+    }
+
+    private Predicate<? super Player> cachePermissionTest(Predicate<? super Player> permissionTest) {
+        return this.permissionCache == null ? permissionTest : this.permissionCache.wrap(permissionTest);
+    }
+
+    /**
+     * Tests the given permission test against a player, recording metrics if enabled.
+     *
+     * @param permissionTest the permission test
+     * @param player the player
+     * @return the result of the test
+     */
+    protected static boolean testPermission(Predicate<? super Player> permissionTest, Player player) {
+        CommodoreMetrics metrics = CommodoreMetrics.INSTANCE;
+        if (!metrics.isEnabled()) {
+            return permissionTest.test(player);
+        }
+
+        long start = System.nanoTime();
+        boolean result = permissionTest.test(player);
+        metrics.recordPredicate(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Gets the suggestion provider to apply to the arguments of nodes registered for the given command.
+     *
+     * @param command the command
+     * @return the suggestion provider
+     */
+    protected abstract SuggestionProvider<?> getSuggestionProvider(Command command);
+
+    /**
+     * Gets the suggestion provider to apply to arguments which use the given provider,
+     * which is safe to call from any thread.
+     *
+     * <p>The provider is kept as it is by default.</p>
+     *
+     * @param provider the provider
+     * @return the suggestion provider
+     */
+    protected SuggestionProvider<?> getAsyncSuggestionProvider(AsyncSuggestionProvider<?> provider) {
+        return provider;
+    }
+
+    /**
+     * Gets the state which determines the command tree the player would be sent.
+     *
+     * @param player the player
+     * @return the state
+     */
+    protected abstract ResendScheduler.SendState getSendState(Player player);
+
+    /**
+     * Registers a batch of prepared nodes.
+     *
+     * @param registrations the registrations
+     */
+    protected abstract void registerPrepared(List<Registration> registrations);
+
+    /**
+     * Unregisters a batch of previously registered nodes.
+     *
+     * @param registrations the registrations
+     */
+    protected abstract void unregisterPrepared(List<Registration> registrations);
+
+    /**
+     * Unregisters a batch of previously registered nodes, and registers a batch of prepared nodes
+     * in their place.
+     *
+     * <p>Implementations which publish the registered nodes to other threads should override
+     * this to apply both changes at once, so the replaced nodes are never missing.</p>
+     *
+     * <p>This, {@link #registerPrepared(List)} and {@link #unregisterPrepared(List)} are
+     * called while holding the lock on the registration index, so changes are applied in
+     * the order they were indexed.</p>
+     *
+     * @param unregistered the registrations to unregister
+     * @param registered the registrations to register
+     */
+    protected void replacePrepared(List<Registration> unregistered, List<Registration> registered) {
+        if (!unregistered.isEmpty()) {
+            unregisterPrepared(unregistered);
+        }
+        registerPrepared(registered);
+    }
+
+    private Registration prepare(Command command, LiteralCommandNode<?> node, Predicate<? super Player> permissionTest, Map<SuggestionProvider<?>, Set<CommandNode<?>>> prepared) {
+        AliasPlan aliases = AliasPlan.of(command);
+        return new Registration(command, aliases, prepareNodes(command, aliases, node, prepared), permissionTest);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<LiteralCommandNode<?>> prepareNodes(Command command, AliasPlan aliases, LiteralCommandNode<?> node, Map<SuggestionProvider<?>, Set<CommandNode<?>>> prepared) {
         try {
-            COMMAND_EXECUTE_FUNCTION_FIELD.set(node, DUMMY_COMMAND);
-        } catch (IllegalAccessException e) {
+            // expand static arguments first, they don't need the server's suggestion provider
+            StaticArgumentExpander.expand(node);
+
+            SuggestionProvider<?> suggestionProvider = getSuggestionProvider(command);
+            Set<CommandNode<?>> visited = prepared.computeIfAbsent(suggestionProvider, x -> Collections.newSetFromMap(new IdentityHashMap<>()));
+            // the same replacement for each provider, so identical nodes can still be interned
+            Map<AsyncSuggestionProvider<?>, SuggestionProvider<?>> asyncProviders = new IdentityHashMap<>();
+            setRequiredHackyFields(node, suggestionProvider, provider -> asyncProviders.computeIfAbsent(provider, this::getAsyncSuggestionProvider), visited);
+        } catch (Throwable e) {
             e.printStackTrace();
         }
 
-        if (suggestionProvider != null && node instanceof ArgumentCommandNode) {
-            ArgumentCommandNode<?, ?> argumentNode = (ArgumentCommandNode<?, ?>) node;
+        if (!aliases.contains(node.getLiteral())) {
+            node = renameLiteralNode(node, aliases.name());
+        }
 
-            // set the custom suggestion provider field so tab completions work
+        List<LiteralCommandNode<?>> nodes = new ArrayList<>();
+        for (String alias : aliases.all()) {
+            if (node.getLiteral().equals(alias)) {
+                nodes.add(node);
+            } else {
+                nodes.add(LiteralArgumentBuilder.literal(alias).redirect((LiteralCommandNode<Object>) node).build());
+            }
+        }
+
+        // intern last, once nothing else will change the tree, so the keys of its nodes stay valid.
+        // the registered node is the root, so the tree can be released when it is unregistered
+        if (this.interner != null) {
             try {
-                CUSTOM_SUGGESTIONS_FIELD.set(argumentNode, suggestionProvider);
-            } catch (IllegalAccessException e) {
+                int saved = this.interner.intern(node);
+                CommodoreMetrics metrics = CommodoreMetrics.INSTANCE;
+                if (saved != 0 && metrics.isEnabled()) {
+                    metrics.recordInterned(saved);
+                }
+            } catch (Throwable e) {
                 e.printStackTrace();
             }
         }
+        return nodes;
+    }
+
+    /**
+     * A command node which has been prepared for registration.
+     *
+     * <p>The nodes of a registration made with a {@link Supplier} are only built
+     * the first time {@link #nodes()} is called.</p>
+     */
+    protected static final class Registration {
+        // the command, or null if the node was registered directly
+        final Command command;
+        // the aliases of the command, or null if the node was registered directly
+        final AliasPlan aliases;
+        // the names of the nodes to register, known before the nodes are built
+        final List<String> names;
+        // the permission test, or null if the node should be sent to all players
+        final Predicate<? super Player> permissionTest;
+
+        // the nodes to register, one for each alias, or null if not yet built
+        private volatile List<LiteralCommandNode<?>> nodes;
+        // builds the nodes, or null once they have been built
+        private Supplier<List<LiteralCommandNode<?>>> factory;
+
+        Registration(Command command, AliasPlan aliases, List<LiteralCommandNode<?>> nodes, Predicate<? super Player> permissionTest) {
+            this.command = command;
+            this.aliases = aliases;
+            this.names = new ArrayList<>(nodes.size());
+            for (LiteralCommandNode<?> node : nodes) {
+                this.names.add(node.getName());
+            }
+            this.permissionTest = permissionTest;
+            this.nodes = nodes;
+        }
+
+        Registration(Command command, AliasPlan aliases, Supplier<List<LiteralCommandNode<?>>> factory, Predicate<? super Player> permissionTest) {
+            this.command = command;
+            this.aliases = aliases;
+            this.names = aliases.all();
+            this.permissionTest = permissionTest;
+            this.factory = factory;
+        }
 
-        for (CommandNode<?> child : node.getChildren()) {
-            setRequiredHackyFieldsRecursively(child, suggestionProvider);
+        /**
+         * Gets if the nodes have been built.
+         *
+         * @return true if built
+         */
+        boolean isBuilt() {
+            return this.nodes != null;
+        }
+
+        /**
+         * Gets the nodes to register, building them if necessary.
+         *
+         * <p>Nodes are built at most once, even if called concurrently. If building
+         * fails, the error is printed and no nodes are registered.</p>
+         *
+         * @return the nodes
+         */
+        List<LiteralCommandNode<?>> nodes() {
+            List<LiteralCommandNode<?>> nodes = this.nodes;
+            if (nodes == null) {
+                synchronized (this) {
+                    nodes = this.nodes;
+                    if (nodes == null) {
+                        try {
+                            nodes = this.factory.get();
+                        } catch (Throwable e) {
+                            e.printStackTrace();
+                            nodes = Collections.emptyList();
+                        }
+                        this.nodes = nodes;
+                        this.factory = null;
+                    }
+                }
+            }
+            return nodes;
         }
     }
 
-    protected static <S> LiteralCommandNode<S> renameLiteralNode(LiteralCommandNode<S> node, String newLiteral) {
-        LiteralCommandNode<S> clone = new LiteralCommandNode<>(newLiteral, node.getCommand(), node.getRequirement(), node.getRedirect(), node.getRedirectModifier(), node.isFork());
-        for (CommandNode<S> child : node.getChildren()) {
-            clone.addChild(child);
+    /**
+     * Unregisters everything registered by a plugin when it is disabled.
+     */
+    private static final class PluginDisableListener implements Listener {
+        private final AbstractCommodore commodore;
+
+        private PluginDisableListener(AbstractCommodore commodore) {
+            this.commodore = commodore;
         }
-        return clone;
+
+        @EventHandler
+        public void onDisable(PluginDisableEvent e) {
+            if (e.getPlugin() == this.commodore.plugin) {
+                this.commodore.unregisterAll();
+                if (this.commodore.permissionCache != null) {
+                    this.commodore.permissionCache.removeInvalidationListener(this.commodore.permissionCacheListener);
+                }
+            }
+        }
+    }
+
+    protected static void removeChild(RootCommandNode<?> root, String name) {
+        CommandNodeAccessor.removeChild(root, name);
     }
 
     /**
-     * Gets the aliases known for the given command.
+     * Replaces the children of the root node with the given nodes, in a single pass.
      *
-     * <p>This will include the main label, as well as defined aliases, and
-     * aliases including the fallback prefix added by Bukkit.</p>
+     * <p>Any existing children with the same name as one of the given nodes are
+     * removed before the nodes are added.</p>
      *
-     * @param command the command
-     * @return the aliases
+     * @param root the root node
+     * @param nodes the nodes to add
+     * @return the number of existing children which were removed
      */
-    protected static Collection<String> getAliases(Command command) {
-        Objects.requireNonNull(command, "command");
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected static int replaceChildren(RootCommandNode root, Collection<? extends CommandNode<?>> nodes) {
+        if (nodes.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, ?> children = CommandNodeAccessor.children(root);
+        Map<String, ?> literals = CommandNodeAccessor.literals(root);
+        Map<String, ?> arguments = CommandNodeAccessor.arguments(root);
+        int removed = 0;
+        for (CommandNode<?> node : nodes) {
+            String name = node.getName();
+            if (children.remove(name) != null) {
+                removed++;
+            }
+            literals.remove(name);
+            arguments.remove(name);
+        }
+
+        for (CommandNode<?> node : nodes) {
+            // a later node with the same name replaces (rather than merges with) an earlier one
+            if (root.getChild(node.getName()) != null) {
+                removeChild(root, node.getName());
+            }
+            root.addChild((CommandNode) node);
+        }
+        return removed;
+    }
+
+    /**
+     * Sets the fields required for the node and all of its descendants to be sent to the client.
+     *
+     * <p>The tree is walked iteratively, and each distinct node is visited at most once,
+     * so trees with heavily shared (or cyclic) children are handled in linear time.</p>
+     *
+     * @param node the node
+     * @param suggestionProvider the suggestion provider to apply to argument nodes
+     * @param asyncProviders maps each {@link AsyncSuggestionProvider} to the provider to apply in its place
+     * @param visited the nodes already prepared with the same suggestion provider
+     */
+    protected static void setRequiredHackyFields(CommandNode<?> node, SuggestionProvider<?> suggestionProvider, Function<AsyncSuggestionProvider<?>, SuggestionProvider<?>> asyncProviders, Set<CommandNode<?>> visited) {
+        Deque<CommandNode<?>> stack = new ArrayDeque<>();
+        if (visited.add(node)) {
+            stack.push(node);
+        }
+
+        while (!stack.isEmpty()) {
+            CommandNode<?> current = stack.pop();
+
+            // set command execution function so the server sets the executable flag on the command
+            if (current.getCommand() != DUMMY_COMMAND) {
+                CommandNodeAccessor.setCommand(current, DUMMY_COMMAND);
+            }
+
+            if (suggestionProvider != null && current instanceof ArgumentCommandNode) {
+                ArgumentCommandNode<?, ?> argumentNode = (ArgumentCommandNode<?, ?>) current;
 
-        Stream<String> aliasesStream = Stream.concat(
-                Stream.of(command.getLabel()),
-                command.getAliases().stream()
-        );
+                // set the custom suggestion provider field so tab completions work.
+                // indexed providers are kept, they answer faster than the server's provider,
+                // and providers which are safe to call asynchronously may be moved off the calling thread
+                SuggestionProvider<?> suggestions = argumentNode.getCustomSuggestions();
+                SuggestionProvider<?> replacement;
+                if (suggestions instanceof IndexedSuggestionProvider) {
+                    replacement = suggestions;
+                } else if (suggestions instanceof AsyncSuggestionProvider) {
+                    replacement = asyncProviders.apply((AsyncSuggestionProvider<?>) suggestions);
+                } else {
+                    replacement = suggestionProvider;
+                }
+                if (suggestions != replacement) {
+                    CommandNodeAccessor.setCustomSuggestions(argumentNode, replacement);
+                }
+            }
 
-        if (command instanceof PluginCommand) {
-            String fallbackPrefix = ((PluginCommand) command).getPlugin().getName().toLowerCase().trim();
-            aliasesStream = aliasesStream.flatMap(alias -> Stream.of(
-                    alias,
-                    fallbackPrefix + ":" + alias
-            ));
+            for (CommandNode<?> child : current.getChildren()) {
+                if (visited.add(child)) {
+                    stack.push(child);
+                }
+            }
         }
+    }
 
-        return aliasesStream.distinct().collect(Collectors.toList());
+    protected static <S> LiteralCommandNode<S> renameLiteralNode(LiteralCommandNode<S> node, String newLiteral) {
+        LiteralCommandNode<S> clone = new LiteralCommandNode<>(newLiteral, node.getCommand(), node.getRequirement(), node.getRedirect(), node.getRedirectModifier(), node.isFork());
+        for (CommandNode<S> child : node.getChildren()) {
+            clone.addChild(child);
+        }
+        return clone;
     }
 
 }
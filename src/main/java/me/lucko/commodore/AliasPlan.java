@@ -0,0 +1,148 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.PluginCommand;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * The aliases known for a command, computed once and stored in compact arrays.
+ *
+ * <p>This includes the main label, the defined aliases, and aliases including
+ * the fallback prefix added by Bukkit.</p>
+ */
+final class AliasPlan {
+
+    // cached plans, recomputed when the label or aliases of the command change
+    private static final Map<Command, AliasPlan> CACHE = new WeakHashMap<>();
+
+    /**
+     * Gets the alias plan for the given command.
+     *
+     * @param command the command
+     * @return the alias plan
+     */
+    static AliasPlan of(Command command) {
+        Objects.requireNonNull(command, "command");
+        synchronized (CACHE) {
+            AliasPlan plan = CACHE.get(command);
+            if (plan == null || !plan.isCurrent(command)) {
+                plan = new AliasPlan(command);
+                CACHE.put(command, plan);
+            }
+            return plan;
+        }
+    }
+
+    // the state of the command the plan was computed from
+    private final String label;
+    private final List<String> sourceAliases;
+
+    // the name of the command
+    private final String name;
+
+    // the label, defined aliases and aliases including the fallback prefix (e.g. "plugin:alias"), in registration order
+    private final String[] all;
+    // every alias above, prefixed with "minecraft:"
+    private final String[] minecraftPrefixedAliases;
+
+    // every alias above, for constant time lookups
+    private final Set<String> lookup;
+
+    private AliasPlan(Command command) {
+        this.label = command.getLabel();
+        this.sourceAliases = new ArrayList<>(command.getAliases());
+        this.name = command.getName();
+
+        Set<String> aliases = new LinkedHashSet<>();
+        aliases.add(this.label);
+        aliases.addAll(this.sourceAliases);
+
+        Set<String> all = new LinkedHashSet<>();
+        if (command instanceof PluginCommand) {
+            String fallbackPrefix = ((PluginCommand) command).getPlugin().getName().toLowerCase().trim();
+            for (String alias : aliases) {
+                all.add(alias);
+                all.add(fallbackPrefix + ":" + alias);
+            }
+        } else {
+            all.addAll(aliases);
+        }
+
+        this.all = all.toArray(new String[0]);
+
+        this.minecraftPrefixedAliases = new String[this.all.length];
+        for (int i = 0; i < this.all.length; i++) {
+            this.minecraftPrefixedAliases[i] = "minecraft:" + this.all[i];
+        }
+
+        this.lookup = Collections.unmodifiableSet(new HashSet<>(all));
+    }
+
+    /**
+     * Gets if the plan still reflects the label and aliases of the given command.
+     *
+     * @param command the command
+     * @return true if the plan is current
+     */
+    boolean isCurrent(Command command) {
+        return this.label.equals(command.getLabel()) && this.sourceAliases.equals(command.getAliases());
+    }
+
+    /**
+     * Gets if the given string is one of the aliases in this plan.
+     *
+     * @param alias the alias
+     * @return true if the alias is contained in this plan
+     */
+    boolean contains(String alias) {
+        return this.lookup.contains(alias);
+    }
+
+    String name() {
+        return this.name;
+    }
+
+    List<String> all() {
+        return Collections.unmodifiableList(Arrays.asList(this.all));
+    }
+
+    List<String> minecraftPrefixedAliases() {
+        return Collections.unmodifiableList(Arrays.asList(this.minecraftPrefixedAliases));
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.suggestion.SuggestionProvider;
+
+/**
+ * A {@link SuggestionProvider} which is safe to call from any thread.
+ *
+ * <p>Argument nodes using a provider which implements this interface keep it when they
+ * are registered with commodore, instead of having it replaced with the server's
+ * provider for the command. When
+ * {@link CommodoreOptions.Builder#asyncSuggestions(int, int, long, java.util.concurrent.TimeUnit) asynchronous suggestions}
+ * are enabled, the provider is called on commodore's executor rather than on the
+ * thread handling the request.</p>
+ *
+ * <p>Only applies to the reflection implementation. On Paper, suggestions are resolved
+ * against the server's own command tree, so the provider is never called.</p>
+ *
+ * @param <S> the command source type
+ */
+@FunctionalInterface
+public interface AsyncSuggestionProvider<S> extends SuggestionProvider<S> {
+
+}
@@ -0,0 +1,247 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.context.StringRange;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.suggestion.SuggestionProvider;
+import com.mojang.brigadier.suggestion.Suggestions;
+import com.mojang.brigadier.suggestion.SuggestionsBuilder;
+
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the suggestions of {@link AsyncSuggestionProvider}s on a bounded executor.
+ *
+ * <p>A new request from a sender cancels their previous one, and each sender may only
+ * have a limited number of requests being computed at once. Requests which are cancelled,
+ * rejected or not completed within the deadline are answered with no suggestions.</p>
+ */
+final class AsyncSuggestions {
+
+    /**
+     * The suggestions returned when a request is cancelled or times out.
+     */
+    static final Suggestions UNAVAILABLE = new Suggestions(StringRange.at(0), Collections.emptyList());
+
+    // the number of requests which can be waiting for a thread
+    private static final int QUEUE_CAPACITY = 256;
+
+    /**
+     * Creates an executor for suggestions from the given options.
+     *
+     * @param options the options
+     * @return the executor, or null if suggestions should be computed synchronously
+     */
+    static AsyncSuggestions of(CommodoreOptions options) {
+        if (options.getAsyncSuggestionThreads() == 0) {
+            return null;
+        }
+        return new AsyncSuggestions(options.getAsyncSuggestionThreads(), options.getAsyncSuggestionsPerPlayer(), options.getAsyncSuggestionDeadlineNanos());
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor timer;
+    private final int maxInFlight;
+    private final long deadlineNanos;
+
+    // the latest request from each sender
+    private final ConcurrentHashMap<Object, Request> latest = new ConcurrentHashMap<>();
+    // the number of requests being computed for each sender
+    private final ConcurrentHashMap<Object, Integer> inFlight = new ConcurrentHashMap<>();
+
+    private AsyncSuggestions(int threads, int maxInFlight, long deadlineNanos) {
+        this.maxInFlight = maxInFlight;
+        this.deadlineNanos = deadlineNanos;
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), new DaemonThreadFactory("commodore-suggestions"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("commodore-suggestions-timer"));
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Returns a suggestion provider which computes the suggestions of the given provider
+     * on this executor.
+     *
+     * @param provider the provider
+     * @return an asynchronous provider
+     */
+    @SuppressWarnings("unchecked")
+    AsyncSuggestionProvider<?> wrap(AsyncSuggestionProvider<?> provider) {
+        if (provider instanceof Offloaded) {
+            // already computed on an executor
+            return provider;
+        }
+        return new Offloaded((SuggestionProvider<Object>) provider);
+    }
+
+    /**
+     * Stops the executor. Any pending requests are answered with no suggestions.
+     */
+    void shutdown() {
+        this.executor.shutdown();
+        this.timer.shutdownNow();
+        for (Request request : this.latest.values()) {
+            request.result.complete(UNAVAILABLE);
+        }
+    }
+
+    private CompletableFuture<Suggestions> getSuggestions(SuggestionProvider<Object> delegate, CommandContext<Object> context, SuggestionsBuilder builder) throws CommandSyntaxException {
+        Object sender = ReflectionUtil.senderKey(context.getSource());
+        if (sender == null) {
+            return delegate.getSuggestions(context, builder);
+        }
+
+        Request request = new Request(sender);
+        Request previous = this.latest.put(sender, request);
+        if (previous != null && previous.result.complete(UNAVAILABLE)) {
+            recordCancelled();
+        }
+
+        try {
+            this.executor.execute(() -> request.run(delegate, context, builder));
+            ScheduledFuture<?> timeout = this.timer.schedule(() -> {
+                if (request.result.complete(UNAVAILABLE)) {
+                    CommodoreMetrics metrics = CommodoreMetrics.INSTANCE;
+                    if (metrics.isEnabled()) {
+                        metrics.recordSuggestionTimeout();
+                    }
+                }
+            }, this.deadlineNanos, TimeUnit.NANOSECONDS);
+            request.result.whenComplete((suggestions, ex) -> timeout.cancel(false));
+        } catch (RejectedExecutionException e) {
+            // the queue is full, or the executor has been shut down
+            if (request.result.complete(UNAVAILABLE)) {
+                recordCancelled();
+            }
+        }
+        return request.result;
+    }
+
+    private boolean acquire(Object sender) {
+        boolean[] acquired = new boolean[1];
+        this.inFlight.compute(sender, (key, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= this.maxInFlight) {
+                return count;
+            }
+            acquired[0] = true;
+            return current + 1;
+        });
+        return acquired[0];
+    }
+
+    private void release(Object sender) {
+        this.inFlight.computeIfPresent(sender, (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    private static void recordCancelled() {
+        CommodoreMetrics metrics = CommodoreMetrics.INSTANCE;
+        if (metrics.isEnabled()) {
+            metrics.recordSuggestionCancelled();
+        }
+    }
+
+    private final class Offloaded implements AsyncSuggestionProvider<Object> {
+        private final SuggestionProvider<Object> delegate;
+
+        Offloaded(SuggestionProvider<Object> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CompletableFuture<Suggestions> getSuggestions(CommandContext<Object> context, SuggestionsBuilder builder) throws CommandSyntaxException {
+            return AsyncSuggestions.this.getSuggestions(this.delegate, context, builder);
+        }
+    }
+
+    private final class Request {
+        private final Object sender;
+        private final CompletableFuture<Suggestions> result = new CompletableFuture<>();
+
+        Request(Object sender) {
+            this.sender = sender;
+            this.result.whenComplete((suggestions, ex) -> AsyncSuggestions.this.latest.remove(sender, this));
+        }
+
+        void run(SuggestionProvider<Object> delegate, CommandContext<Object> context, SuggestionsBuilder builder) {
+            // cancelled or timed out while waiting for a thread
+            if (this.result.isDone()) {
+                return;
+            }
+            // too many superseded requests from this sender are still being computed
+            if (!acquire(this.sender)) {
+                if (this.result.complete(UNAVAILABLE)) {
+                    recordCancelled();
+                }
+                return;
+            }
+
+            CompletableFuture<Suggestions> future;
+            try {
+                future = delegate.getSuggestions(context, builder);
+            } catch (Throwable e) {
+                release(this.sender);
+                this.result.complete(UNAVAILABLE);
+                return;
+            }
+
+            future.whenComplete((suggestions, ex) -> {
+                release(this.sender);
+                this.result.complete(ex == null ? suggestions : UNAVAILABLE);
+            });
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, this.name + "-" + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.Command;
+import com.mojang.brigadier.suggestion.SuggestionProvider;
+import com.mojang.brigadier.tree.ArgumentCommandNode;
+import com.mojang.brigadier.tree.CommandNode;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Map;
+
+/**
+ * Accessors for the private fields of brigadier's {@link CommandNode} classes.
+ *
+ * <p>Each field is resolved once into a static final {@link MethodHandle}, which
+ * the JIT can treat as a constant and inline. If a handle can't be created for a
+ * field, plain reflective {@link Field} access is used instead.</p>
+ */
+final class CommandNodeAccessor {
+
+    // CommandNode#children, CommandNode#literals, CommandNode#arguments getters
+    private static final MethodHandle CHILDREN_GETTER;
+    private static final MethodHandle LITERALS_GETTER;
+    private static final MethodHandle ARGUMENTS_GETTER;
+
+    // CommandNode#command setter
+    private static final MethodHandle COMMAND_SETTER;
+
+    // ArgumentCommandNode#customSuggestions setter
+    private static final MethodHandle CUSTOM_SUGGESTIONS_SETTER;
+
+    static {
+        try {
+            MethodType getterType = MethodType.methodType(Map.class, CommandNode.class);
+            CHILDREN_GETTER = getter(CommandNode.class.getDeclaredField("children"), getterType);
+            LITERALS_GETTER = getter(CommandNode.class.getDeclaredField("literals"), getterType);
+            ARGUMENTS_GETTER = getter(CommandNode.class.getDeclaredField("arguments"), getterType);
+
+            COMMAND_SETTER = setter(
+                    CommandNode.class.getDeclaredField("command"),
+                    MethodType.methodType(void.class, CommandNode.class, Command.class)
+            );
+            CUSTOM_SUGGESTIONS_SETTER = setter(
+                    ArgumentCommandNode.class.getDeclaredField("customSuggestions"),
+                    MethodType.methodType(void.class, ArgumentCommandNode.class, SuggestionProvider.class)
+            );
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle getter(Field field, MethodType type) throws ReflectiveOperationException {
+        field.setAccessible(true);
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.lookup().unreflectGetter(field);
+        } catch (IllegalAccessException e) {
+            // fallback to Field#get
+            handle = MethodHandles.publicLookup()
+                    .findVirtual(Field.class, "get", MethodType.methodType(Object.class, Object.class))
+                    .bindTo(field);
+        }
+        return handle.asType(type);
+    }
+
+    private static MethodHandle setter(Field field, MethodType type) throws ReflectiveOperationException {
+        field.setAccessible(true);
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.lookup().unreflectSetter(field);
+        } catch (IllegalAccessException e) {
+            // fallback to Field#set - some runtimes refuse to create setter handles for final fields
+            handle = MethodHandles.publicLookup()
+                    .findVirtual(Field.class, "set", MethodType.methodType(void.class, Object.class, Object.class))
+                    .bindTo(field);
+        }
+        return handle.asType(type);
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        throw new RuntimeException(e);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, ?> children(CommandNode<?> node) {
+        try {
+            return (Map<String, ?>) CHILDREN_GETTER.invokeExact(node);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, ?> literals(CommandNode<?> node) {
+        try {
+            return (Map<String, ?>) LITERALS_GETTER.invokeExact(node);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, ?> arguments(CommandNode<?> node) {
+        try {
+            return (Map<String, ?>) ARGUMENTS_GETTER.invokeExact(node);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void setCommand(CommandNode<?> node, Command<?> command) {
+        try {
+            COMMAND_SETTER.invokeExact(node, command);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void setCustomSuggestions(ArgumentCommandNode<?, ?> node, SuggestionProvider<?> suggestionProvider) {
+        try {
+            CUSTOM_SUGGESTIONS_SETTER.invokeExact(node, suggestionProvider);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Removes the child with the given name from the node.
+     *
+     * @param node the node
+     * @param name the name of the child
+     */
+    static void removeChild(CommandNode<?> node, String name) {
+        children(node).remove(name);
+        literals(node).remove(name);
+        arguments(node).remove(name);
+    }
+
+    static void ensureSetup() {
+        // do nothing - this is only called to trigger the static initializer
+    }
+
+    private CommandNodeAccessor() {}
+
+}
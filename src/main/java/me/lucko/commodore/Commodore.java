@@ -33,8 +33,10 @@ import com.mojang.brigadier.tree.LiteralCommandNode;
 import org.bukkit.command.Command;
 import org.bukkit.entity.Player;
 
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 /**
  * Utility for using Minecraft's 1.13 'brigadier' library in Bukkit plugins.
@@ -80,6 +82,22 @@ public interface Commodore {
         register(command, argumentBuilder.build(), permissionTest);
     }
 
+    /**
+     * Registers argument data to the dispatcher, against all aliases defined
+     * for the {@code command}, building it only when it is first needed.
+     *
+     * <p>The {@code nodeSupplier} is called at most once, the first time a player
+     * who passes the {@code permissionTest} is sent the command tree. This may happen
+     * on any thread. Until then, the argument data is neither built nor sent.</p>
+     *
+     * <p>Useful for large trees which are only visible to a few players.</p>
+     *
+     * @param command the command to read aliases from
+     * @param nodeSupplier the supplier of the argument data
+     * @param permissionTest the predicate to check whether players should be sent argument data
+     */
+    void register(Command command, Supplier<? extends LiteralCommandNode<?>> nodeSupplier, Predicate<? super Player> permissionTest);
+
     /**
      * Registers the provided argument data to the dispatcher, against all
      * aliases defined for the {@code command}.
@@ -114,6 +132,21 @@ public interface Commodore {
         register(command, argumentBuilder.build());
     }
 
+    /**
+     * Registers the provided argument data to the dispatcher, against all
+     * aliases defined for each command.
+     *
+     * <p>Equivalent to calling {@link #register(Command, LiteralCommandNode)}
+     * for each entry in the map, except that the nodes are prepared and
+     * added to the dispatcher in a single pass.</p>
+     *
+     * @param nodes the argument data, keyed by the command to read aliases from
+     */
+    default void registerAll(Map<? extends Command, ? extends LiteralCommandNode<?>> nodes) {
+        Objects.requireNonNull(nodes, "nodes");
+        nodes.forEach(this::register);
+    }
+
     /**
      * Registers the provided argument data to the dispatcher.
      *
@@ -141,4 +174,49 @@ public interface Commodore {
         register(argumentBuilder.build());
     }
 
+    /**
+     * Unregisters the argument data previously registered for the {@code command},
+     * including the data registered against each of its aliases.
+     *
+     * <p>Argument data is unregistered automatically when the plugin which
+     * owns this instance is disabled.</p>
+     *
+     * @param command the command
+     * @return true if argument data was unregistered
+     */
+    boolean unregister(Command command);
+
+    /**
+     * Unregisters the argument data previously registered with the given literal.
+     *
+     * <p>If the data was registered for a {@link Command}, the literal can be any
+     * of the command's aliases, and the data registered against all of the other
+     * aliases is unregistered too.</p>
+     *
+     * @param literal the literal
+     * @return true if argument data was unregistered
+     */
+    boolean unregister(String literal);
+
+    /**
+     * Requests that the player is resent their command tree, for example after their
+     * permissions have changed.
+     *
+     * <p>Prefer this over calling {@link Player#updateCommands()} directly. Requests
+     * are processed on the next tick, so repeated requests for the same player are
+     * merged into one. Bulk requests are spread across ticks, and players who still pass
+     * the same permission tests as when they were last sent the tree are skipped.</p>
+     *
+     * @param player the player
+     * @see CommodoreOptions.Builder#resendsPerTick(int)
+     */
+    void requestResend(Player player);
+
+    /**
+     * Requests that all online players are resent their command tree.
+     *
+     * @see #requestResend(Player)
+     */
+    void requestResendAll();
+
 }
@@ -0,0 +1,341 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.arguments.ArgumentType;
+import com.mojang.brigadier.arguments.BoolArgumentType;
+import com.mojang.brigadier.arguments.DoubleArgumentType;
+import com.mojang.brigadier.arguments.FloatArgumentType;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.LongArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.builder.RequiredArgumentBuilder;
+import com.mojang.brigadier.tree.ArgumentCommandNode;
+import com.mojang.brigadier.tree.CommandNode;
+import com.mojang.brigadier.tree.LiteralCommandNode;
+
+import me.lucko.commodore.file.CommodoreFileFormat;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * A cache of parsed {@code .commodore} files, stored in a compact binary encoding.
+ *
+ * <p>Parsing a file with {@link #parse(String, InputStream)} first looks for a cached
+ * encoding of the same content, and only falls back to {@link CommodoreFileFormat} when
+ * there is none (or the file has changed).</p>
+ *
+ * <p>Only trees made up of literals and brigadier's own argument types ({@code brigadier:bool},
+ * {@code brigadier:double}, {@code brigadier:float}, {@code brigadier:integer},
+ * {@code brigadier:long} and {@code brigadier:string}) are cached. Files using any other
+ * argument type, such as the {@code minecraft:} types provided by the server, are never
+ * cached, and are fully parsed from the text every time. No cache entry is written for
+ * them.</p>
+ */
+public final class CommodoreFileCache {
+
+    private static final int MAGIC = 0x434D4446; // CMDF
+    private static final int VERSION = 1;
+
+    private static final byte NODE_LITERAL = 0;
+    private static final byte NODE_ARGUMENT = 1;
+
+    private static final byte TYPE_BOOL = 0;
+    private static final byte TYPE_DOUBLE = 1;
+    private static final byte TYPE_FLOAT = 2;
+    private static final byte TYPE_INTEGER = 3;
+    private static final byte TYPE_LONG = 4;
+    private static final byte TYPE_WORD = 5;
+    private static final byte TYPE_STRING = 6;
+    private static final byte TYPE_GREEDY_STRING = 7;
+
+    /**
+     * Creates a cache stored in the data folder of the given plugin.
+     *
+     * @param plugin the plugin
+     * @return the cache
+     */
+    public static CommodoreFileCache create(Plugin plugin) {
+        Objects.requireNonNull(plugin, "plugin");
+        return create(new File(plugin.getDataFolder(), "commodore-cache"));
+    }
+
+    /**
+     * Creates a cache stored in the given directory.
+     *
+     * @param directory the directory
+     * @return the cache
+     */
+    public static CommodoreFileCache create(File directory) {
+        Objects.requireNonNull(directory, "directory");
+        return new CommodoreFileCache(directory);
+    }
+
+    private final File directory;
+
+    private CommodoreFileCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Parses a {@code .commodore} file, using the cached encoding if its content hasn't changed.
+     *
+     * <p>Files which use argument types other than brigadier's own are always parsed
+     * from the text, see {@link CommodoreFileCache}.</p>
+     *
+     * <p>The stream is read fully and then closed.</p>
+     *
+     * @param name the name of the file, used to name the cache entry
+     * @param input the content of the file
+     * @param <S> the command source type
+     * @return the parsed node
+     * @throws IOException if the file could not be read or parsed
+     */
+    public <S> LiteralCommandNode<S> parse(String name, InputStream input) throws IOException {
+        Objects.requireNonNull(name, "name");
+        Objects.requireNonNull(input, "input");
+
+        byte[] content;
+        try (InputStream in = input) {
+            content = readFully(in);
+        }
+        byte[] hash = hash(content);
+
+        File file = new File(this.directory, name.replaceAll("[^A-Za-z0-9._-]", "_") + ".bin");
+        LiteralCommandNode<S> node = read(file, hash);
+        if (node != null) {
+            return node;
+        }
+
+        node = CommodoreFileFormat.parse(new ByteArrayInputStream(content));
+        write(file, hash, node);
+        return node;
+    }
+
+    private static <S> LiteralCommandNode<S> read(File file, byte[] hash) {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            byte[] cachedHash = new byte[hash.length];
+            in.readFully(cachedHash);
+            if (!Arrays.equals(hash, cachedHash)) {
+                return null;
+            }
+
+            CommandNode<S> node = decode(in);
+            return node instanceof LiteralCommandNode ? (LiteralCommandNode<S>) node : null;
+        } catch (IOException | RuntimeException e) {
+            // treat a corrupt entry as missing, it'll be overwritten below
+            return null;
+        }
+    }
+
+    private void write(File file, byte[] hash, LiteralCommandNode<?> node) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(hash);
+            if (!encode(node, out)) {
+                // contains something we can't encode - always use the text parser
+                return;
+            }
+            out.flush();
+
+            Files.createDirectories(this.directory.toPath());
+            File temp = new File(this.directory, file.getName() + ".tmp");
+            Files.write(temp.toPath(), bytes.toByteArray());
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean encode(CommandNode<?> node, DataOutputStream out) throws IOException {
+        if (node.getCommand() != null || node.getRedirect() != null) {
+            return false;
+        }
+
+        if (node instanceof LiteralCommandNode) {
+            out.writeByte(NODE_LITERAL);
+            out.writeUTF(node.getName());
+        } else if (node instanceof ArgumentCommandNode) {
+            ArgumentCommandNode<?, ?> argument = (ArgumentCommandNode<?, ?>) node;
+            if (argument.getCustomSuggestions() != null) {
+                return false;
+            }
+            out.writeByte(NODE_ARGUMENT);
+            out.writeUTF(node.getName());
+            if (!encodeType(argument.getType(), out)) {
+                return false;
+            }
+        } else {
+            return false;
+        }
+
+        Collection<? extends CommandNode<?>> children = node.getChildren();
+        out.writeInt(children.size());
+        for (CommandNode<?> child : children) {
+            if (!encode(child, out)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean encodeType(ArgumentType<?> type, DataOutputStream out) throws IOException {
+        // match exact classes only, subclasses may behave differently
+        Class<?> clazz = type.getClass();
+        if (clazz == BoolArgumentType.class) {
+            out.writeByte(TYPE_BOOL);
+        } else if (clazz == DoubleArgumentType.class) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble(((DoubleArgumentType) type).getMinimum());
+            out.writeDouble(((DoubleArgumentType) type).getMaximum());
+        } else if (clazz == FloatArgumentType.class) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat(((FloatArgumentType) type).getMinimum());
+            out.writeFloat(((FloatArgumentType) type).getMaximum());
+        } else if (clazz == IntegerArgumentType.class) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt(((IntegerArgumentType) type).getMinimum());
+            out.writeInt(((IntegerArgumentType) type).getMaximum());
+        } else if (clazz == LongArgumentType.class) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong(((LongArgumentType) type).getMinimum());
+            out.writeLong(((LongArgumentType) type).getMaximum());
+        } else if (clazz == StringArgumentType.class) {
+            switch (((StringArgumentType) type).getType()) {
+                case SINGLE_WORD:
+                    out.writeByte(TYPE_WORD);
+                    break;
+                case QUOTABLE_PHRASE:
+                    out.writeByte(TYPE_STRING);
+                    break;
+                case GREEDY_PHRASE:
+                    out.writeByte(TYPE_GREEDY_STRING);
+                    break;
+                default:
+                    return false;
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <S> CommandNode<S> decode(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        String name = in.readUTF();
+
+        CommandNode<S> node;
+        switch (kind) {
+            case NODE_LITERAL:
+                node = LiteralArgumentBuilder.<S>literal(name).build();
+                break;
+            case NODE_ARGUMENT:
+                node = RequiredArgumentBuilder.<S, Object>argument(name, (ArgumentType<Object>) decodeType(in)).build();
+                break;
+            default:
+                throw new IOException("Unknown node kind: " + kind);
+        }
+
+        int children = in.readInt();
+        for (int i = 0; i < children; i++) {
+            node.addChild(decode(in));
+        }
+        return node;
+    }
+
+    private static ArgumentType<?> decodeType(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_BOOL:
+                return BoolArgumentType.bool();
+            case TYPE_DOUBLE:
+                return DoubleArgumentType.doubleArg(in.readDouble(), in.readDouble());
+            case TYPE_FLOAT:
+                return FloatArgumentType.floatArg(in.readFloat(), in.readFloat());
+            case TYPE_INTEGER:
+                return IntegerArgumentType.integer(in.readInt(), in.readInt());
+            case TYPE_LONG:
+                return LongArgumentType.longArg(in.readLong(), in.readLong());
+            case TYPE_WORD:
+                return StringArgumentType.word();
+            case TYPE_STRING:
+                return StringArgumentType.string();
+            case TYPE_GREEDY_STRING:
+                return StringArgumentType.greedyString();
+            default:
+                throw new IOException("Unknown argument type: " + type);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM is required to support SHA-256
+            throw new RuntimeException(e);
+        }
+    }
+
+}
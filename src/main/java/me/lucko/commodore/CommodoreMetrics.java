@@ -0,0 +1,603 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Opt-in instrumentation for the time commodore spends handling command tree sends.
+ *
+ * <p>Metrics are disabled by default, in which case recording costs a single
+ * volatile read. They can be enabled with {@link #setEnabled(boolean)}, or by
+ * setting {@code -Dcommodore.metrics=true}.</p>
+ *
+ * <p>Obtain the instance using {@link CommodoreProvider#getMetrics()}.</p>
+ */
+public final class CommodoreMetrics {
+
+    static final CommodoreMetrics INSTANCE = new CommodoreMetrics();
+
+    private volatile boolean enabled = Boolean.getBoolean("commodore.metrics");
+
+    private final LongAdder eventsHandled = new LongAdder();
+    private final Histogram sendLatency = new Histogram();
+    private final LongAdder predicateEvaluations = new LongAdder();
+    private final LongAdder predicateNanos = new LongAdder();
+    private final LongAdder nodesAdded = new LongAdder();
+    private final LongAdder nodesRemoved = new LongAdder();
+    private final LongAdder nodesInterned = new LongAdder();
+    private final LongAdder resendsSent = new LongAdder();
+    private final LongAdder resendsSkipped = new LongAdder();
+    private final LongAdder treeBytesSaved = new LongAdder();
+    private final LongAdder treeNodesPruned = new LongAdder();
+    private final LongAdder suggestionCacheHits = new LongAdder();
+    private final LongAdder suggestionCacheMisses = new LongAdder();
+    private final LongAdder suggestionsCancelled = new LongAdder();
+    private final LongAdder suggestionsTimedOut = new LongAdder();
+    private final Histogram registrationLatency = new Histogram();
+    private final LongAdder nodesRegistered = new LongAdder();
+
+    private CommodoreMetrics() {
+
+    }
+
+    /**
+     * Gets if metrics are being recorded.
+     *
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Sets if metrics should be recorded.
+     *
+     * @param enabled if metrics should be recorded
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Resets all recorded metrics.
+     */
+    public void reset() {
+        this.eventsHandled.reset();
+        this.sendLatency.reset();
+        this.predicateEvaluations.reset();
+        this.predicateNanos.reset();
+        this.nodesAdded.reset();
+        this.nodesRemoved.reset();
+        this.nodesInterned.reset();
+        this.resendsSent.reset();
+        this.resendsSkipped.reset();
+        this.treeBytesSaved.reset();
+        this.treeNodesPruned.reset();
+        this.suggestionCacheHits.reset();
+        this.suggestionCacheMisses.reset();
+        this.suggestionsCancelled.reset();
+        this.suggestionsTimedOut.reset();
+        this.registrationLatency.reset();
+        this.nodesRegistered.reset();
+    }
+
+    /**
+     * Takes a snapshot of the recorded metrics.
+     *
+     * @return a snapshot
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Registers an MXBean exposing these metrics with the platform MBean server.
+     *
+     * <p>The bean is registered as {@code me.lucko.commodore:type=Metrics,name=<name>}.</p>
+     *
+     * @param name the name to register the bean under, typically the name of the plugin
+     * @return the name the bean was registered under
+     * @throws JMException if the bean could not be registered
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        Objects.requireNonNull(name, "name");
+        ObjectName objectName = new ObjectName("me.lucko.commodore:type=Metrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(this), objectName);
+        return objectName;
+    }
+
+    void recordSend(long nanos, int added, int removed) {
+        this.eventsHandled.increment();
+        this.sendLatency.record(nanos);
+        this.nodesAdded.add(added);
+        this.nodesRemoved.add(removed);
+    }
+
+    void recordPredicate(long nanos) {
+        this.predicateEvaluations.increment();
+        this.predicateNanos.add(nanos);
+    }
+
+    void recordRegistration(long nanos, int registered) {
+        this.registrationLatency.record(nanos);
+        this.nodesRegistered.add(registered);
+    }
+
+    void recordInterned(int saved) {
+        this.nodesInterned.add(saved);
+    }
+
+    void recordPruned(int bytesSaved, int nodesPruned) {
+        this.treeBytesSaved.add(bytesSaved);
+        this.treeNodesPruned.add(nodesPruned);
+    }
+
+    void recordSuggestionCache(boolean hit) {
+        if (hit) {
+            this.suggestionCacheHits.increment();
+        } else {
+            this.suggestionCacheMisses.increment();
+        }
+    }
+
+    void recordSuggestionCancelled() {
+        this.suggestionsCancelled.increment();
+    }
+
+    void recordSuggestionTimeout() {
+        this.suggestionsTimedOut.increment();
+    }
+
+    void recordResend(boolean sent) {
+        if (sent) {
+            this.resendsSent.increment();
+        } else {
+            this.resendsSkipped.increment();
+        }
+    }
+
+    /**
+     * A point in time view of the recorded metrics.
+     */
+    public static final class Snapshot {
+        private final long eventsHandled;
+        private final Latency sendLatency;
+        private final long predicateEvaluations;
+        private final long predicateNanos;
+        private final long nodesAdded;
+        private final long nodesRemoved;
+        private final long nodesInterned;
+        private final long resendsSent;
+        private final long resendsSkipped;
+        private final long treeBytesSaved;
+        private final long treeNodesPruned;
+        private final long suggestionCacheHits;
+        private final long suggestionCacheMisses;
+        private final long suggestionsCancelled;
+        private final long suggestionsTimedOut;
+        private final Latency registrationLatency;
+        private final long nodesRegistered;
+
+        private Snapshot(CommodoreMetrics metrics) {
+            this.eventsHandled = metrics.eventsHandled.sum();
+            this.sendLatency = metrics.sendLatency.snapshot();
+            this.predicateEvaluations = metrics.predicateEvaluations.sum();
+            this.predicateNanos = metrics.predicateNanos.sum();
+            this.nodesAdded = metrics.nodesAdded.sum();
+            this.nodesRemoved = metrics.nodesRemoved.sum();
+            this.nodesInterned = metrics.nodesInterned.sum();
+            this.resendsSent = metrics.resendsSent.sum();
+            this.resendsSkipped = metrics.resendsSkipped.sum();
+            this.treeBytesSaved = metrics.treeBytesSaved.sum();
+            this.treeNodesPruned = metrics.treeNodesPruned.sum();
+            this.suggestionCacheHits = metrics.suggestionCacheHits.sum();
+            this.suggestionCacheMisses = metrics.suggestionCacheMisses.sum();
+            this.suggestionsCancelled = metrics.suggestionsCancelled.sum();
+            this.suggestionsTimedOut = metrics.suggestionsTimedOut.sum();
+            this.registrationLatency = metrics.registrationLatency.snapshot();
+            this.nodesRegistered = metrics.nodesRegistered.sum();
+        }
+
+        /**
+         * Gets the number of command send events handled.
+         *
+         * @return the number of events
+         */
+        public long getEventsHandled() {
+            return this.eventsHandled;
+        }
+
+        /**
+         * Gets the time spent handling command send events.
+         *
+         * @return the send latency
+         */
+        public Latency getSendLatency() {
+            return this.sendLatency;
+        }
+
+        /**
+         * Gets the number of permission tests evaluated.
+         *
+         * @return the number of evaluations
+         */
+        public long getPredicateEvaluations() {
+            return this.predicateEvaluations;
+        }
+
+        /**
+         * Gets the cumulative time spent evaluating permission tests, in nanoseconds.
+         *
+         * @return the time spent
+         */
+        public long getPredicateNanos() {
+            return this.predicateNanos;
+        }
+
+        /**
+         * Gets the number of nodes added to command trees sent to players.
+         *
+         * @return the number of nodes added
+         */
+        public long getNodesAdded() {
+            return this.nodesAdded;
+        }
+
+        /**
+         * Gets the number of nodes (or aliases) removed from command trees.
+         *
+         * @return the number of nodes removed
+         */
+        public long getNodesRemoved() {
+            return this.nodesRemoved;
+        }
+
+        /**
+         * Gets the number of nodes replaced by a shared instance when interning is enabled.
+         *
+         * @return the number of nodes saved
+         * @see CommodoreOptions.Builder#internNodes(boolean)
+         */
+        public long getNodesInterned() {
+            return this.nodesInterned;
+        }
+
+        /**
+         * Gets the number of requested resends which were sent to the player.
+         *
+         * @return the number of resends sent
+         * @see Commodore#requestResend(org.bukkit.entity.Player)
+         */
+        public long getResendsSent() {
+            return this.resendsSent;
+        }
+
+        /**
+         * Gets the number of requested resends which were skipped, because nothing
+         * had changed since the player was last sent their command tree.
+         *
+         * @return the number of resends skipped
+         * @see Commodore#requestResend(org.bukkit.entity.Player)
+         */
+        public long getResendsSkipped() {
+            return this.resendsSkipped;
+        }
+
+        /**
+         * Gets the estimated number of bytes saved by collapsing subtrees to fit the
+         * tree budget, summed over every send.
+         *
+         * @return the number of bytes saved
+         * @see CommodoreOptions.Builder#maxTreeBytes(int)
+         */
+        public long getTreeBytesSaved() {
+            return this.treeBytesSaved;
+        }
+
+        /**
+         * Gets the number of nodes removed by collapsing subtrees to fit the tree
+         * budget, summed over every send.
+         *
+         * @return the number of nodes removed
+         * @see CommodoreOptions.Builder#maxTreeBytes(int)
+         */
+        public long getTreeNodesPruned() {
+            return this.treeNodesPruned;
+        }
+
+        /**
+         * Gets the number of suggestion requests answered from the suggestion cache,
+         * including those answered by narrowing a result for a shorter input, if enabled.
+         *
+         * @return the number of hits
+         * @see CommodoreOptions.Builder#cacheSuggestions(int, long, java.util.concurrent.TimeUnit, CommodoreOptions.SuggestionScope)
+         */
+        public long getSuggestionCacheHits() {
+            return this.suggestionCacheHits;
+        }
+
+        /**
+         * Gets the number of suggestion requests passed on to the suggestion provider
+         * because they couldn't be answered from the suggestion cache.
+         *
+         * @return the number of misses
+         * @see CommodoreOptions.Builder#cacheSuggestions(int, long, java.util.concurrent.TimeUnit, CommodoreOptions.SuggestionScope)
+         */
+        public long getSuggestionCacheMisses() {
+            return this.suggestionCacheMisses;
+        }
+
+        /**
+         * Gets the number of suggestion requests answered with no suggestions because they
+         * were superseded by a newer request, or couldn't be scheduled.
+         *
+         * @return the number of cancelled requests
+         * @see CommodoreOptions.Builder#asyncSuggestions(int, int, long, java.util.concurrent.TimeUnit)
+         */
+        public long getSuggestionsCancelled() {
+            return this.suggestionsCancelled;
+        }
+
+        /**
+         * Gets the number of suggestion requests answered with no suggestions because they
+         * weren't completed within the deadline.
+         *
+         * @return the number of timed out requests
+         * @see CommodoreOptions.Builder#asyncSuggestions(int, int, long, java.util.concurrent.TimeUnit)
+         */
+        public long getSuggestionsTimedOut() {
+            return this.suggestionsTimedOut;
+        }
+
+        /**
+         * Gets the time spent registering commands.
+         *
+         * @return the registration latency
+         */
+        public Latency getRegistrationLatency() {
+            return this.registrationLatency;
+        }
+
+        /**
+         * Gets the number of nodes registered, including one for each alias.
+         *
+         * @return the number of nodes registered
+         */
+        public long getNodesRegistered() {
+            return this.nodesRegistered;
+        }
+
+        /**
+         * Gets the metrics in this snapshot as a flat map.
+         *
+         * @return the metrics
+         */
+        public Map<String, Long> asMap() {
+            Map<String, Long> map = new LinkedHashMap<>();
+            map.put("eventsHandled", this.eventsHandled);
+            this.sendLatency.appendTo(map, "send");
+            map.put("predicateEvaluations", this.predicateEvaluations);
+            map.put("predicateNanos", this.predicateNanos);
+            map.put("nodesAdded", this.nodesAdded);
+            map.put("nodesRemoved", this.nodesRemoved);
+            map.put("nodesInterned", this.nodesInterned);
+            map.put("resendsSent", this.resendsSent);
+            map.put("resendsSkipped", this.resendsSkipped);
+            map.put("treeBytesSaved", this.treeBytesSaved);
+            map.put("treeNodesPruned", this.treeNodesPruned);
+            map.put("suggestionCacheHits", this.suggestionCacheHits);
+            map.put("suggestionCacheMisses", this.suggestionCacheMisses);
+            map.put("suggestionsCancelled", this.suggestionsCancelled);
+            map.put("suggestionsTimedOut", this.suggestionsTimedOut);
+            this.registrationLatency.appendTo(map, "registration");
+            map.put("nodesRegistered", this.nodesRegistered);
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return "CommodoreMetrics.Snapshot" + asMap();
+        }
+    }
+
+    /**
+     * A summary of recorded latencies.
+     *
+     * <p>Percentiles are approximate: latencies are recorded into power-of-two
+     * buckets, and the upper bound of the matching bucket is reported.</p>
+     */
+    public static final class Latency {
+        private final long count;
+        private final long totalNanos;
+        private final long p50Nanos;
+        private final long p99Nanos;
+        private final long maxNanos;
+
+        private Latency(long count, long totalNanos, long p50Nanos, long p99Nanos, long maxNanos) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * Gets the number of recorded latencies.
+         *
+         * @return the count
+         */
+        public long getCount() {
+            return this.count;
+        }
+
+        /**
+         * Gets the sum of all recorded latencies, in nanoseconds.
+         *
+         * @return the total
+         */
+        public long getTotalNanos() {
+            return this.totalNanos;
+        }
+
+        /**
+         * Gets the approximate median latency, in nanoseconds.
+         *
+         * @return the median
+         */
+        public long getP50Nanos() {
+            return this.p50Nanos;
+        }
+
+        /**
+         * Gets the approximate 99th percentile latency, in nanoseconds.
+         *
+         * @return the 99th percentile
+         */
+        public long getP99Nanos() {
+            return this.p99Nanos;
+        }
+
+        /**
+         * Gets the approximate maximum latency, in nanoseconds.
+         *
+         * @return the maximum
+         */
+        public long getMaxNanos() {
+            return this.maxNanos;
+        }
+
+        private void appendTo(Map<String, Long> map, String prefix) {
+            map.put(prefix + "Count", this.count);
+            map.put(prefix + "TotalNanos", this.totalNanos);
+            map.put(prefix + "P50Nanos", this.p50Nanos);
+            map.put(prefix + "P99Nanos", this.p99Nanos);
+            map.put(prefix + "MaxNanos", this.maxNanos);
+        }
+    }
+
+    /**
+     * A low overhead histogram of latencies, bucketed by powers of two.
+     */
+    private static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder totalNanos = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < this.buckets.length; i++) {
+                this.buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            nanos = Math.max(nanos, 1);
+            this.buckets[63 - Long.numberOfLeadingZeros(nanos)].increment();
+            this.totalNanos.add(nanos);
+        }
+
+        void reset() {
+            for (LongAdder bucket : this.buckets) {
+                bucket.reset();
+            }
+            this.totalNanos.reset();
+        }
+
+        Latency snapshot() {
+            long[] counts = new long[this.buckets.length];
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = this.buckets[i].sum();
+                count += counts[i];
+            }
+            return new Latency(count, this.totalNanos.sum(), percentile(counts, count, 0.50), percentile(counts, count, 0.99), percentile(counts, count, 1.0));
+        }
+
+        private static long percentile(long[] counts, long count, double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(count * percentile);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    // upper bound of the bucket
+                    return i == 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * The management interface exposed by {@link #registerMBean(String)}.
+     */
+    public interface MetricsMXBean {
+        boolean isEnabled();
+
+        void setEnabled(boolean enabled);
+
+        Map<String, Long> getMetrics();
+
+        void reset();
+    }
+
+    private static final class MetricsBean implements MetricsMXBean {
+        private final CommodoreMetrics metrics;
+
+        MetricsBean(CommodoreMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return this.metrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            this.metrics.setEnabled(enabled);
+        }
+
+        @Override
+        public Map<String, Long> getMetrics() {
+            return this.metrics.snapshot().asMap();
+        }
+
+        @Override
+        public void reset() {
+            this.metrics.reset();
+        }
+    }
+
+}
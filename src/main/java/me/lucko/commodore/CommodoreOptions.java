@@ -0,0 +1,504 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options for a {@link Commodore} instance.
+ *
+ * <p>Obtain a {@link Commodore} instance using these options with
+ * {@link CommodoreProvider#getCommodore(org.bukkit.plugin.Plugin, CommodoreOptions)}.</p>
+ */
+public final class CommodoreOptions {
+
+    private static final CommodoreOptions DEFAULTS = builder().build();
+
+    /**
+     * Gets the default options.
+     *
+     * @return the default options
+     */
+    public static CommodoreOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Creates a new builder, initialised with the default options.
+     *
+     * @return a new builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private final boolean internNodes;
+    private final int resendsPerTick;
+    private final boolean sharedRuntime;
+    private final int maxTreeDepth;
+    private final int maxTreeBytes;
+    private final SuggestionScope suggestionCacheScope;
+    private final int suggestionCacheMaximumSize;
+    private final long suggestionCacheExpireAfterNanos;
+    private final boolean suggestionCacheNarrowing;
+    private final int asyncSuggestionThreads;
+    private final int asyncSuggestionsPerPlayer;
+    private final long asyncSuggestionDeadlineNanos;
+    private final PermissionCache permissionCache;
+
+    private CommodoreOptions(Builder builder) {
+        this.internNodes = builder.internNodes;
+        this.resendsPerTick = builder.resendsPerTick;
+        this.sharedRuntime = builder.sharedRuntime;
+        this.maxTreeDepth = builder.maxTreeDepth;
+        this.maxTreeBytes = builder.maxTreeBytes;
+        this.suggestionCacheScope = builder.suggestionCacheScope;
+        this.suggestionCacheMaximumSize = builder.suggestionCacheMaximumSize;
+        this.suggestionCacheExpireAfterNanos = builder.suggestionCacheExpireAfterNanos;
+        this.suggestionCacheNarrowing = builder.suggestionCacheNarrowing;
+        this.asyncSuggestionThreads = builder.asyncSuggestionThreads;
+        this.asyncSuggestionsPerPlayer = builder.asyncSuggestionsPerPlayer;
+        this.asyncSuggestionDeadlineNanos = builder.asyncSuggestionDeadlineNanos;
+        this.permissionCache = builder.permissionCache;
+    }
+
+    /**
+     * Gets if structurally identical subtrees should be interned at registration time.
+     *
+     * @return true if nodes should be interned
+     * @see Builder#internNodes(boolean)
+     */
+    public boolean isInternNodes() {
+        return this.internNodes;
+    }
+
+    /**
+     * Gets the maximum number of players processed each tick by the resend scheduler.
+     *
+     * @return the number of players per tick
+     * @see Builder#resendsPerTick(int)
+     */
+    public int getResendsPerTick() {
+        return this.resendsPerTick;
+    }
+
+    /**
+     * Gets if command sends should be handled by a runtime shared with other plugins.
+     *
+     * @return true if the shared runtime should be used
+     * @see Builder#sharedRuntime(boolean)
+     */
+    public boolean isSharedRuntime() {
+        return this.sharedRuntime;
+    }
+
+    /**
+     * Gets the maximum depth of the argument data sent for a command, or 0 if unlimited.
+     *
+     * @return the maximum depth
+     * @see Builder#maxTreeDepth(int)
+     */
+    public int getMaxTreeDepth() {
+        return this.maxTreeDepth;
+    }
+
+    /**
+     * Gets the maximum estimated size in bytes of the argument data sent to a player, or 0 if unlimited.
+     *
+     * @return the maximum size
+     * @see Builder#maxTreeBytes(int)
+     */
+    public int getMaxTreeBytes() {
+        return this.maxTreeBytes;
+    }
+
+    /**
+     * Gets the scope of cached suggestions, or null if suggestions are not cached.
+     *
+     * @return the scope
+     * @see Builder#cacheSuggestions(int, long, TimeUnit, SuggestionScope)
+     */
+    public SuggestionScope getSuggestionCacheScope() {
+        return this.suggestionCacheScope;
+    }
+
+    /**
+     * Gets the maximum number of cached suggestion results.
+     *
+     * @return the maximum size
+     * @see Builder#cacheSuggestions(int, long, TimeUnit, SuggestionScope)
+     */
+    public int getSuggestionCacheMaximumSize() {
+        return this.suggestionCacheMaximumSize;
+    }
+
+    /**
+     * Gets how long suggestion results are cached for, in nanoseconds.
+     *
+     * @return the expiry time
+     * @see Builder#cacheSuggestions(int, long, TimeUnit, SuggestionScope)
+     */
+    public long getSuggestionCacheExpireAfterNanos() {
+        return this.suggestionCacheExpireAfterNanos;
+    }
+
+    /**
+     * Gets if cached suggestions for a partial argument are narrowed to answer longer inputs.
+     *
+     * @return true if cached suggestions are narrowed
+     * @see Builder#cacheSuggestions(int, long, TimeUnit, SuggestionScope, boolean)
+     */
+    public boolean isSuggestionCacheNarrowing() {
+        return this.suggestionCacheNarrowing;
+    }
+
+    /**
+     * Gets the number of threads suggestions are computed on, or 0 if they are computed
+     * synchronously.
+     *
+     * @return the number of threads
+     * @see Builder#asyncSuggestions(int, int, long, TimeUnit)
+     */
+    public int getAsyncSuggestionThreads() {
+        return this.asyncSuggestionThreads;
+    }
+
+    /**
+     * Gets the maximum number of suggestion requests computed at once for each player.
+     *
+     * @return the maximum number of requests
+     * @see Builder#asyncSuggestions(int, int, long, TimeUnit)
+     */
+    public int getAsyncSuggestionsPerPlayer() {
+        return this.asyncSuggestionsPerPlayer;
+    }
+
+    /**
+     * Gets how long a suggestion request may take before it is answered with no
+     * suggestions, in nanoseconds.
+     *
+     * @return the deadline
+     * @see Builder#asyncSuggestions(int, int, long, TimeUnit)
+     */
+    public long getAsyncSuggestionDeadlineNanos() {
+        return this.asyncSuggestionDeadlineNanos;
+    }
+
+    /**
+     * Gets the cache used for the results of permission tests, or null if they are not cached.
+     *
+     * @return the cache
+     * @see Builder#cachePermissions(PermissionCache)
+     */
+    public PermissionCache getPermissionCache() {
+        return this.permissionCache;
+    }
+
+    /**
+     * The scope in which cached suggestions are shared.
+     */
+    public enum SuggestionScope {
+
+        /**
+         * Suggestions are cached separately for each player.
+         */
+        PLAYER,
+
+        /**
+         * Suggestions are shared between all players.
+         */
+        GLOBAL
+    }
+
+    /**
+     * Builder for {@link CommodoreOptions}.
+     */
+    public static final class Builder {
+        private boolean internNodes = false;
+        private int resendsPerTick = 50;
+        private boolean sharedRuntime = false;
+        private int maxTreeDepth = 0;
+        private int maxTreeBytes = 0;
+        private SuggestionScope suggestionCacheScope = null;
+        private int suggestionCacheMaximumSize = 0;
+        private long suggestionCacheExpireAfterNanos = 0;
+        private boolean suggestionCacheNarrowing = false;
+        private int asyncSuggestionThreads = 0;
+        private int asyncSuggestionsPerPlayer = 0;
+        private long asyncSuggestionDeadlineNanos = 0;
+        private PermissionCache permissionCache = null;
+
+        private Builder() {
+
+        }
+
+        /**
+         * Sets if structurally identical subtrees should be interned at registration time.
+         *
+         * <p>When enabled, argument and literal nodes which have the same name, type,
+         * suggestion provider, executability, requirement, redirect and children are
+         * replaced by a single shared instance. The number of nodes saved is reported
+         * by {@link CommodoreMetrics}.</p>
+         *
+         * <p>As nodes may be shared between commands, trees must not be changed after
+         * they have been registered. Copy a tree before changing it, and register the
+         * copy again.</p>
+         *
+         * <p>Disabled by default.</p>
+         *
+         * @param internNodes if nodes should be interned
+         * @return this builder
+         */
+        public Builder internNodes(boolean internNodes) {
+            this.internNodes = internNodes;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of players processed each tick when command trees are
+         * resent using {@link Commodore#requestResend(org.bukkit.entity.Player)} or
+         * {@link Commodore#requestResendAll()}.
+         *
+         * <p>Defaults to 50.</p>
+         *
+         * @param resendsPerTick the number of players per tick
+         * @return this builder
+         * @throws IllegalArgumentException if {@code resendsPerTick} is not positive
+         */
+        public Builder resendsPerTick(int resendsPerTick) {
+            if (resendsPerTick <= 0) {
+                throw new IllegalArgumentException("resendsPerTick must be positive: " + resendsPerTick);
+            }
+            this.resendsPerTick = resendsPerTick;
+            return this;
+        }
+
+        /**
+         * Sets if command sends should be handled by a runtime shared with other plugins
+         * which shade commodore.
+         *
+         * <p>When enabled, the first instance publishes a runtime through Bukkit's
+         * {@link org.bukkit.plugin.ServicesManager}, and later instances (including copies
+         * relocated into other plugins) register their nodes with it, so a single listener
+         * adds the nodes for every plugin in one pass. Instances fall back to handling
+         * sends themselves if the runtime was published by an incompatible version, or the
+         * plugin which published it is disabled.</p>
+         *
+         * <p>Only applies on Paper. Disabled by default.</p>
+         *
+         * @param sharedRuntime if the shared runtime should be used
+         * @return this builder
+         */
+        public Builder sharedRuntime(boolean sharedRuntime) {
+            this.sharedRuntime = sharedRuntime;
+            return this;
+        }
+
+        /**
+         * Sets the maximum depth of the argument data sent for a command, where the
+         * command literal itself has a depth of 1.
+         *
+         * <p>Subtrees below this depth are collapsed into a single greedy string argument,
+         * which asks the server for suggestions. The bytes saved are reported by
+         * {@link CommodoreMetrics}.</p>
+         *
+         * <p>Only applies on Paper. Defaults to 0, which means unlimited.</p>
+         *
+         * @param maxTreeDepth the maximum depth
+         * @return this builder
+         * @throws IllegalArgumentException if {@code maxTreeDepth} is negative
+         */
+        public Builder maxTreeDepth(int maxTreeDepth) {
+            if (maxTreeDepth < 0) {
+                throw new IllegalArgumentException("maxTreeDepth must not be negative: " + maxTreeDepth);
+            }
+            this.maxTreeDepth = maxTreeDepth;
+            return this;
+        }
+
+        /**
+         * Sets the maximum estimated size in bytes of the argument data sent to a player,
+         * as encoded in the clientbound commands packet.
+         *
+         * <p>While over budget, the largest commands are collapsed into their literal and
+         * a single greedy string argument, which asks the server for suggestions. The bytes
+         * saved are reported by {@link CommodoreMetrics}.</p>
+         *
+         * <p>Only applies on Paper. Defaults to 0, which means unlimited.</p>
+         *
+         * @param maxTreeBytes the maximum size
+         * @return this builder
+         * @throws IllegalArgumentException if {@code maxTreeBytes} is negative
+         */
+        public Builder maxTreeBytes(int maxTreeBytes) {
+            if (maxTreeBytes < 0) {
+                throw new IllegalArgumentException("maxTreeBytes must not be negative: " + maxTreeBytes);
+            }
+            this.maxTreeBytes = maxTreeBytes;
+            return this;
+        }
+
+        /**
+         * Enables caching of the suggestions the server provides for registered arguments.
+         *
+         * <p>Results are keyed by command, the preceding input and the partial argument,
+         * and only answer requests for exactly the same input. Use
+         * {@link #cacheSuggestions(int, long, TimeUnit, SuggestionScope, boolean)} to also
+         * answer longer inputs from a cached result.</p>
+         *
+         * <p>{@link SuggestionScope#GLOBAL} should only be used when suggestions don't
+         * depend on who is asking for them, e.g. on permissions. With
+         * {@link SuggestionScope#PLAYER}, requests which don't come from a command
+         * sender are not cached.</p>
+         *
+         * <p>Only applies to the reflection implementation; on Paper, suggestions are
+         * not routed through commodore. Disabled by default.</p>
+         *
+         * @param maximumSize the maximum number of cached results
+         * @param expireAfter how long results are cached for
+         * @param unit the unit of {@code expireAfter}
+         * @param scope the scope in which results are shared
+         * @return this builder
+         * @throws IllegalArgumentException if {@code maximumSize} or {@code expireAfter} is not positive
+         */
+        public Builder cacheSuggestions(int maximumSize, long expireAfter, TimeUnit unit, SuggestionScope scope) {
+            return cacheSuggestions(maximumSize, expireAfter, unit, scope, false);
+        }
+
+        /**
+         * Enables caching of the suggestions the server provides for registered arguments.
+         *
+         * <p>Results are keyed by command, the preceding input and the partial argument.
+         * When {@code narrow} is true, a result for a partial argument also answers longer
+         * inputs which extend it, by filtering the cached suggestions instead of asking the
+         * provider again. This should only be enabled when providers always return every
+         * matching suggestion: a provider which truncates its results (e.g. to the first
+         * hundred values) would have suggestions missing from the narrowed result.</p>
+         *
+         * <p>{@link SuggestionScope#GLOBAL} should only be used when suggestions don't
+         * depend on who is asking for them, e.g. on permissions. With
+         * {@link SuggestionScope#PLAYER}, requests which don't come from a command
+         * sender are not cached.</p>
+         *
+         * <p>Only applies to the reflection implementation; on Paper, suggestions are
+         * not routed through commodore. Disabled by default.</p>
+         *
+         * @param maximumSize the maximum number of cached results
+         * @param expireAfter how long results are cached for
+         * @param unit the unit of {@code expireAfter}
+         * @param scope the scope in which results are shared
+         * @param narrow if results should be narrowed to answer longer inputs
+         * @return this builder
+         * @throws IllegalArgumentException if {@code maximumSize} or {@code expireAfter} is not positive
+         */
+        public Builder cacheSuggestions(int maximumSize, long expireAfter, TimeUnit unit, SuggestionScope scope, boolean narrow) {
+            Objects.requireNonNull(unit, "unit");
+            Objects.requireNonNull(scope, "scope");
+            if (maximumSize <= 0) {
+                throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+            }
+            if (expireAfter <= 0) {
+                throw new IllegalArgumentException("expireAfter must be positive: " + expireAfter);
+            }
+            this.suggestionCacheScope = scope;
+            this.suggestionCacheMaximumSize = maximumSize;
+            this.suggestionCacheExpireAfterNanos = unit.toNanos(expireAfter);
+            this.suggestionCacheNarrowing = narrow;
+            return this;
+        }
+
+        /**
+         * Computes the suggestions for arguments using an {@link AsyncSuggestionProvider}
+         * on a bounded pool of threads, instead of on the thread which handles the request.
+         *
+         * <p>A new request from a player cancels their previous one, and requests which
+         * aren't completed within the deadline are answered with no suggestions, so a slow
+         * tab completer can't hold up completions for everyone else. Players may only have
+         * a limited number of requests being computed at once, which bounds the work left
+         * running by cancelled requests.</p>
+         *
+         * <p>Other arguments are always completed by the server's tab completer on the
+         * thread handling the request, as it isn't safe to call from other threads.</p>
+         *
+         * <p>Only applies to the reflection implementation. On Paper, suggestions are
+         * resolved against the server's own command tree and never reach commodore, so
+         * the option has no effect there, and a warning is logged when it is set.
+         * Disabled by default.</p>
+         *
+         * @param threads the number of threads
+         * @param maxPerPlayer the maximum number of requests computed at once for each player
+         * @param deadline how long a request may take
+         * @param unit the unit of {@code deadline}
+         * @return this builder
+         * @throws IllegalArgumentException if {@code threads}, {@code maxPerPlayer} or {@code deadline} is not positive
+         */
+        public Builder asyncSuggestions(int threads, int maxPerPlayer, long deadline, TimeUnit unit) {
+            Objects.requireNonNull(unit, "unit");
+            if (threads <= 0) {
+                throw new IllegalArgumentException("threads must be positive: " + threads);
+            }
+            if (maxPerPlayer <= 0) {
+                throw new IllegalArgumentException("maxPerPlayer must be positive: " + maxPerPlayer);
+            }
+            if (deadline <= 0) {
+                throw new IllegalArgumentException("deadline must be positive: " + deadline);
+            }
+            this.asyncSuggestionThreads = threads;
+            this.asyncSuggestionsPerPlayer = maxPerPlayer;
+            this.asyncSuggestionDeadlineNanos = unit.toNanos(deadline);
+            return this;
+        }
+
+        /**
+         * Caches the results of the permission tests of registered commands in the
+         * given cache.
+         *
+         * <p>The same cache can be shared by several instances. It should be invalidated
+         * when permissions change, which also makes sure the next resend requested for the
+         * affected players isn't skipped.</p>
+         *
+         * <p>Disabled by default.</p>
+         *
+         * @param permissionCache the cache
+         * @return this builder
+         */
+        public Builder cachePermissions(PermissionCache permissionCache) {
+            this.permissionCache = Objects.requireNonNull(permissionCache, "permissionCache");
+            return this;
+        }
+
+        /**
+         * Builds the options.
+         *
+         * @return the options
+         */
+        public CommodoreOptions build() {
+            return new CommodoreOptions(this);
+        }
+    }
+
+}
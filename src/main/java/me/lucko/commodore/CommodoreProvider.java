@@ -28,7 +28,7 @@ package me.lucko.commodore;
 import org.bukkit.plugin.Plugin;
 
 import java.util.Objects;
-import java.util.function.Function;
+import java.util.function.BiFunction;
 
 /**
  * Factory for obtaining instances of {@link Commodore}.
@@ -38,30 +38,56 @@ public final class CommodoreProvider {
         throw new AssertionError();
     }
 
-    private static final Function<Plugin, Commodore> PROVIDER = checkSupported();
+    private static final BiFunction<Plugin, CommodoreOptions, Commodore> PROVIDER = checkSupported();
 
-    private static Function<Plugin, Commodore> checkSupported() {
+    private static BiFunction<Plugin, CommodoreOptions, Commodore> checkSupported() {
+        // the environment is probed without initialising any backend, so only
+        // the backend which is chosen pays for its reflective setup
+        Environment environment;
         try {
-            Class.forName("com.mojang.brigadier.CommandDispatcher");
+            environment = Environment.get();
         } catch (Throwable e) {
             printDebugInfo(e);
             return null;
         }
 
+        if (!environment.hasBrigadier()) {
+            printDebugInfo("Brigadier is not present on the server");
+            return null;
+        }
+
+        String backend = environment.getBackendOverride();
+        if (backend != null && !backend.equals(Environment.BACKEND_PAPER) && !backend.equals(Environment.BACKEND_REFLECTION)) {
+            printDebugInfo("Ignoring unknown -D" + Environment.BACKEND_PROPERTY + " value: " + backend);
+            backend = null;
+        }
+
         // try the paper impl
-        try {
-            PaperCommodore.ensureSetup();
-            return PaperCommodore::new;
-        } catch (Throwable e) {
-            printDebugInfo(e);
+        if (backend == null || backend.equals(Environment.BACKEND_PAPER)) {
+            if (environment.hasPaperSendCommandsEvent()) {
+                try {
+                    PaperCommodore.ensureSetup();
+                    return PaperCommodore::new;
+                } catch (Throwable e) {
+                    printDebugInfo(e);
+                }
+            } else {
+                printDebugInfo("Not running on modern Paper");
+            }
         }
 
         // try reflection impl
-        try {
-            ReflectionCommodore.ensureSetup();
-            return ReflectionCommodore::new;
-        } catch (Throwable e) {
-            printDebugInfo(e);
+        if (backend == null || backend.equals(Environment.BACKEND_REFLECTION)) {
+            if (environment.isMinecraftVersionKnown() && environment.getMinecraftVersion() >= 19) {
+                printDebugInfo("ReflectionCommodore is not supported on MC 1.19 or above");
+            } else {
+                try {
+                    ReflectionCommodore.ensureSetup();
+                    return ReflectionCommodore::new;
+                } catch (Throwable e) {
+                    printDebugInfo(e);
+                }
+            }
         }
 
         return null;
@@ -74,6 +100,12 @@ public final class CommodoreProvider {
         }
     }
 
+    private static void printDebugInfo(String message) {
+        if (System.getProperty("commodore.debug") != null) {
+            System.err.println("Unable to use commodore backend: " + message);
+        }
+    }
+
     /**
      * Checks to see if the Brigadier command system is supported by the server.
      *
@@ -83,6 +115,16 @@ public final class CommodoreProvider {
         return PROVIDER != null;
     }
 
+    /**
+     * Gets the {@link CommodoreMetrics} instance, which records the time commodore
+     * spends handling command tree sends.
+     *
+     * @return the metrics instance
+     */
+    public static CommodoreMetrics getMetrics() {
+        return CommodoreMetrics.INSTANCE;
+    }
+
     /**
      * Obtains a {@link Commodore} instance for the given plugin.
      *
@@ -92,13 +134,27 @@ public final class CommodoreProvider {
      * by the server.
      */
     public static Commodore getCommodore(Plugin plugin) throws BrigadierUnsupportedException {
+        return getCommodore(plugin, CommodoreOptions.defaults());
+    }
+
+    /**
+     * Obtains a {@link Commodore} instance for the given plugin, using the given options.
+     *
+     * @param plugin the plugin
+     * @param options the options
+     * @return the commodore instance
+     * @throws BrigadierUnsupportedException if brigadier is not {@link #isSupported() supported}
+     * by the server.
+     */
+    public static Commodore getCommodore(Plugin plugin, CommodoreOptions options) throws BrigadierUnsupportedException {
         Objects.requireNonNull(plugin, "plugin");
+        Objects.requireNonNull(options, "options");
         if (PROVIDER == null) {
             throw new BrigadierUnsupportedException(
                     "Brigadier is not supported by the server. " +
                     "Set -Dcommodore.debug=true for debug info."
             );
         }
-        return PROVIDER.apply(plugin);
+        return PROVIDER.apply(plugin, options);
     }
 }
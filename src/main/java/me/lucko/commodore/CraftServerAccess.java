@@ -0,0 +1,147 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.suggestion.SuggestionProvider;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.Command;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * The parts of the server's internals used by {@link ReflectionCommodore}.
+ */
+interface CraftServerAccess {
+
+    /**
+     * Gets the server's brigadier dispatcher.
+     *
+     * @return the dispatcher
+     */
+    CommandDispatcher<?> getDispatcher();
+
+    /**
+     * Creates the server's suggestion provider for a Bukkit command.
+     *
+     * @param command the command
+     * @return the suggestion provider
+     */
+    SuggestionProvider<?> createCommandWrapper(Command command);
+
+    /**
+     * Accesses the internals of a CraftBukkit server using reflection.
+     */
+    final class Reflective implements CraftServerAccess {
+        static final Reflective INSTANCE = new Reflective();
+
+        // obc.CraftServer#console field
+        private static final Field CONSOLE_FIELD;
+
+        // nms.MinecraftServer#getCommandDispatcher method
+        private static final Method GET_COMMAND_DISPATCHER_METHOD;
+
+        // nms.CommandDispatcher#getDispatcher (obfuscated) method
+        private static final Method GET_BRIGADIER_DISPATCHER_METHOD;
+
+        // obc.command.BukkitCommandWrapper constructor
+        private static final Constructor<?> COMMAND_WRAPPER_CONSTRUCTOR;
+
+        static {
+            try {
+                if (ReflectionUtil.minecraftVersion() >= 19) {
+                    throw new UnsupportedOperationException("ReflectionCommodore is not supported on MC 1.19 or above. Switch to Paper :)");
+                }
+
+                final Class<?> minecraftServer;
+                final Class<?> commandDispatcher;
+
+                if (ReflectionUtil.minecraftVersion() > 16) {
+                    minecraftServer = ReflectionUtil.mcClass("server.MinecraftServer");
+                    commandDispatcher = ReflectionUtil.mcClass("commands.CommandDispatcher");
+                } else {
+                    minecraftServer = ReflectionUtil.nmsClass("MinecraftServer");
+                    commandDispatcher = ReflectionUtil.nmsClass("CommandDispatcher");
+                }
+
+                Class<?> craftServer = ReflectionUtil.obcClass("CraftServer");
+                CONSOLE_FIELD = craftServer.getDeclaredField("console");
+                CONSOLE_FIELD.setAccessible(true);
+
+                GET_COMMAND_DISPATCHER_METHOD = Arrays.stream(minecraftServer.getDeclaredMethods())
+                        .filter(method -> method.getParameterCount() == 0)
+                        .filter(method -> commandDispatcher.isAssignableFrom(method.getReturnType()))
+                        .findFirst().orElseThrow(NoSuchMethodException::new);
+                GET_COMMAND_DISPATCHER_METHOD.setAccessible(true);
+
+                GET_BRIGADIER_DISPATCHER_METHOD = Arrays.stream(commandDispatcher.getDeclaredMethods())
+                        .filter(method -> method.getParameterCount() == 0)
+                        .filter(method -> CommandDispatcher.class.isAssignableFrom(method.getReturnType()))
+                        .findFirst().orElseThrow(NoSuchMethodException::new);
+                GET_BRIGADIER_DISPATCHER_METHOD.setAccessible(true);
+
+                Class<?> commandWrapperClass = ReflectionUtil.obcClass("command.BukkitCommandWrapper");
+                COMMAND_WRAPPER_CONSTRUCTOR = commandWrapperClass.getConstructor(craftServer, Command.class);
+
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private Reflective() {
+
+        }
+
+        static void ensureSetup() {
+            // do nothing - this is only called to trigger the static initializer
+        }
+
+        @Override
+        public CommandDispatcher<?> getDispatcher() {
+            try {
+                Object mcServerObject = CONSOLE_FIELD.get(Bukkit.getServer());
+                Object commandDispatcherObject = GET_COMMAND_DISPATCHER_METHOD.invoke(mcServerObject);
+                return (CommandDispatcher<?>) GET_BRIGADIER_DISPATCHER_METHOD.invoke(commandDispatcherObject);
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public SuggestionProvider<?> createCommandWrapper(Command command) {
+            try {
+                return (SuggestionProvider<?>) COMMAND_WRAPPER_CONSTRUCTOR.newInstance(Bukkit.getServer(), command);
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+}
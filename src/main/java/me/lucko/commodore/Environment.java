@@ -0,0 +1,148 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import org.bukkit.Bukkit;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A probe of the server environment, taken once and cached.
+ *
+ * <p>Capabilities are detected by looking classes up without initialising them,
+ * so no backend is initialised until it has been chosen.</p>
+ */
+final class Environment {
+
+    /**
+     * The system property used to force a particular backend, either {@code paper} or {@code reflection}.
+     */
+    static final String BACKEND_PROPERTY = "commodore.backend";
+
+    static final String BACKEND_PAPER = "paper";
+    static final String BACKEND_REFLECTION = "reflection";
+
+    private static final Pattern VERSION_PATTERN = Pattern.compile("\\(MC: (\\d)\\.(\\d+)\\.?(\\d+?)?( .*)?\\)");
+
+    /**
+     * Gets the environment, probing it on first use.
+     *
+     * @return the environment
+     */
+    static Environment get() {
+        return Holder.INSTANCE;
+    }
+
+    private static final class Holder {
+        static final Environment INSTANCE = new Environment();
+    }
+
+    private final String serverVersion;
+    private final int minecraftVersion;
+    private final boolean brigadier;
+    private final boolean paperSendCommandsEvent;
+    private final String backendOverride;
+
+    private Environment() {
+        this.serverVersion = Bukkit.getVersion();
+        this.minecraftVersion = parseMinecraftVersion(this.serverVersion);
+        this.brigadier = isClassPresent("com.mojang.brigadier.CommandDispatcher");
+        this.paperSendCommandsEvent = isClassPresent("com.destroystokyo.paper.event.brigadier.AsyncPlayerSendCommandsEvent");
+
+        String backend = System.getProperty(BACKEND_PROPERTY);
+        this.backendOverride = backend == null || backend.isEmpty() ? null : backend.toLowerCase(Locale.ROOT);
+    }
+
+    private static int parseMinecraftVersion(String version) {
+        if (version == null) {
+            return -1;
+        }
+        Matcher matcher = VERSION_PATTERN.matcher(version);
+        return matcher.find() ? Integer.parseInt(matcher.group(2), 10) : -1;
+    }
+
+    private static boolean isClassPresent(String className) {
+        try {
+            Class.forName(className, false, Environment.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the minor Minecraft version of the server, e.g. {@code 16} for 1.16.5.
+     *
+     * @return the minor version
+     * @throws RuntimeException if the version could not be determined
+     */
+    int getMinecraftVersion() {
+        if (this.minecraftVersion == -1) {
+            throw new RuntimeException("Failed to determine Minecraft version",
+                    new IllegalArgumentException(String.format("No match found in '%s'", this.serverVersion)));
+        }
+        return this.minecraftVersion;
+    }
+
+    /**
+     * Gets if the Minecraft version of the server could be determined.
+     *
+     * @return true if known
+     */
+    boolean isMinecraftVersionKnown() {
+        return this.minecraftVersion != -1;
+    }
+
+    /**
+     * Gets if brigadier is present on the server.
+     *
+     * @return true if present
+     */
+    boolean hasBrigadier() {
+        return this.brigadier;
+    }
+
+    /**
+     * Gets if the server provides Paper's {@code AsyncPlayerSendCommandsEvent}.
+     *
+     * @return true if present
+     */
+    boolean hasPaperSendCommandsEvent() {
+        return this.paperSendCommandsEvent;
+    }
+
+    /**
+     * Gets the backend forced using the {@link #BACKEND_PROPERTY} system property.
+     *
+     * @return the backend, or null if not set
+     */
+    String getBackendOverride() {
+        return this.backendOverride;
+    }
+
+}
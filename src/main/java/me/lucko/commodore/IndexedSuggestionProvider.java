@@ -0,0 +1,174 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.suggestion.SuggestionProvider;
+import com.mojang.brigadier.suggestion.Suggestions;
+import com.mojang.brigadier.suggestion.SuggestionsBuilder;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A {@link SuggestionProvider} for arguments with a large set of possible values,
+ * e.g. player names, item ids or permission nodes.
+ *
+ * <p>Values are kept in a sorted index, so suggestions for a prefix are found in
+ * O(log n + k) time, where k is the number of suggestions returned, and values can be
+ * added or removed at any time without rebuilding the index. Matching ignores case.</p>
+ *
+ * <p>When an argument node using this provider is registered with commodore, the
+ * provider is left in place instead of being replaced with the server's provider for
+ * the command, so suggestions are answered directly from the index.</p>
+ *
+ * <p>Only applies to the reflection implementation. On Paper, commodore's nodes are only
+ * part of the command data sent to players, and suggestions are resolved against the
+ * server's own command tree, so the provider is never called there. Players are then
+ * given the suggestions of the command's tab completer instead.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @param <S> the command source type
+ */
+public final class IndexedSuggestionProvider<S> implements SuggestionProvider<S> {
+
+    /**
+     * Creates a new, empty provider which returns every matching value.
+     *
+     * @param <S> the command source type
+     * @return a new provider
+     */
+    public static <S> IndexedSuggestionProvider<S> create() {
+        return new IndexedSuggestionProvider<>(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a new, empty provider which returns at most {@code maxResults} values.
+     *
+     * @param maxResults the maximum number of values returned for a request
+     * @param <S> the command source type
+     * @return a new provider
+     * @throws IllegalArgumentException if {@code maxResults} is not positive
+     */
+    public static <S> IndexedSuggestionProvider<S> create(int maxResults) {
+        if (maxResults <= 0) {
+            throw new IllegalArgumentException("maxResults must be positive: " + maxResults);
+        }
+        return new IndexedSuggestionProvider<>(maxResults);
+    }
+
+    private final int maxResults;
+
+    // keyed by the lower case value followed by the value itself, so values which
+    // only differ by case are kept separately, and sort next to each other
+    private final ConcurrentSkipListMap<String, String> index = new ConcurrentSkipListMap<>();
+
+    private IndexedSuggestionProvider(int maxResults) {
+        this.maxResults = maxResults;
+    }
+
+    private static String key(String value) {
+        return value.toLowerCase(Locale.ROOT) + '\0' + value;
+    }
+
+    /**
+     * Adds a value to the index.
+     *
+     * @param value the value
+     * @return true if the value was not already present
+     */
+    public boolean add(String value) {
+        Objects.requireNonNull(value, "value");
+        return this.index.putIfAbsent(key(value), value) == null;
+    }
+
+    /**
+     * Adds the given values to the index.
+     *
+     * @param values the values
+     */
+    public void addAll(Collection<String> values) {
+        for (String value : values) {
+            add(value);
+        }
+    }
+
+    /**
+     * Removes a value from the index.
+     *
+     * @param value the value
+     * @return true if the value was present
+     */
+    public boolean remove(String value) {
+        Objects.requireNonNull(value, "value");
+        return this.index.remove(key(value)) != null;
+    }
+
+    /**
+     * Removes every value from the index.
+     */
+    public void clear() {
+        this.index.clear();
+    }
+
+    /**
+     * Gets the number of values in the index.
+     *
+     * @return the number of values
+     */
+    public int size() {
+        return this.index.size();
+    }
+
+    /**
+     * Gets the maximum number of values returned for a request.
+     *
+     * @return the maximum number of values
+     */
+    public int getMaxResults() {
+        return this.maxResults;
+    }
+
+    @Override
+    public CompletableFuture<Suggestions> getSuggestions(CommandContext<S> context, SuggestionsBuilder builder) {
+        String prefix = builder.getRemainingLowerCase();
+        int count = 0;
+        for (Map.Entry<String, String> entry : this.index.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix) || count++ == this.maxResults) {
+                break;
+            }
+            builder.suggest(entry.getValue());
+        }
+        return builder.buildFuture();
+    }
+
+}
@@ -0,0 +1,291 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.tree.ArgumentCommandNode;
+import com.mojang.brigadier.tree.CommandNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Replaces structurally identical subtrees with a single shared instance.
+ *
+ * <p>Two nodes are considered identical if they have the same name, argument type,
+ * suggestion provider, command, requirement, redirect and (already interned) children.
+ * Anything other than the argument type is compared by identity.</p>
+ *
+ * <p>The structure of each node is captured when it is interned, and interned nodes
+ * may be shared by several trees, so interned trees must not be changed afterwards.
+ * Anything which needs to change a registered tree should change a copy.</p>
+ */
+final class NodeInterner {
+
+    // the canonical instance for each distinct node structure
+    private final Map<Key, CommandNode<?>> canonical = new HashMap<>();
+    // the key of each canonical instance, and the number of interned trees using it
+    private final Map<CommandNode<?>, Usage> usages = new IdentityHashMap<>();
+    // the canonical instances used by each interned tree, released when the tree is unregistered
+    private final Map<CommandNode<?>, List<CommandNode<?>>> trees = new IdentityHashMap<>();
+
+    /**
+     * Interns the descendants of the given node.
+     *
+     * <p>The node itself is left in place, but its descendants may be replaced by
+     * identical instances seen previously, either in this tree or an earlier one.
+     * This should be the last change made to the tree, and the tree should be
+     * {@link #release(CommandNode) released} once it is no longer registered.</p>
+     *
+     * @param root the root of the tree
+     * @return the number of nodes which were replaced
+     */
+    synchronized int intern(CommandNode<?> root) {
+        release(root);
+
+        // the canonical instance for each node processed so far in this tree
+        Map<CommandNode<?>, CommandNode<?>> processed = new IdentityHashMap<>();
+        int saved = 0;
+
+        // iterative post-order walk, so children are interned before their parents
+        Deque<CommandNode<?>> stack = new ArrayDeque<>();
+        Set<CommandNode<?>> onStack = Collections.newSetFromMap(new IdentityHashMap<>());
+        stack.push(root);
+        onStack.add(root);
+        while (!stack.isEmpty()) {
+            CommandNode<?> node = stack.peek();
+
+            boolean childrenDone = true;
+            for (CommandNode<?> child : node.getChildren()) {
+                if (!processed.containsKey(child)) {
+                    childrenDone = false;
+                    // guard against cycles - treat a node already on the stack as its own canonical instance
+                    if (onStack.add(child)) {
+                        stack.push(child);
+                    } else {
+                        processed.put(child, child);
+                    }
+                }
+            }
+            if (!childrenDone) {
+                continue;
+            }
+            stack.pop();
+            onStack.remove(node);
+
+            // point the node at the canonical instances of its children
+            replaceChildren(node, processed);
+
+            if (node == root) {
+                processed.put(node, node);
+                continue;
+            }
+
+            Key key = new Key(node);
+            CommandNode<?> existing = this.canonical.putIfAbsent(key, node);
+            if (existing == null) {
+                this.usages.put(node, new Usage(key));
+                processed.put(node, node);
+            } else if (existing != node) {
+                processed.put(node, existing);
+                saved++;
+            } else {
+                processed.put(node, node);
+            }
+        }
+
+        // count each canonical instance once for this tree
+        Set<CommandNode<?>> used = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (CommandNode<?> node : processed.values()) {
+            Usage usage = this.usages.get(node);
+            if (usage != null && used.add(node)) {
+                usage.trees++;
+            }
+        }
+        this.trees.put(root, new ArrayList<>(used));
+        return saved;
+    }
+
+    /**
+     * Releases a tree previously passed to {@link #intern(CommandNode)}, removing any
+     * canonical instances no longer used by another interned tree.
+     *
+     * @param root the root of the tree
+     */
+    synchronized void release(CommandNode<?> root) {
+        List<CommandNode<?>> used = this.trees.remove(root);
+        if (used == null) {
+            return;
+        }
+        for (CommandNode<?> node : used) {
+            Usage usage = this.usages.get(node);
+            if (usage != null && --usage.trees == 0) {
+                this.usages.remove(node);
+                this.canonical.remove(usage.key, node);
+            }
+        }
+    }
+
+    /**
+     * Clears the table of canonical instances.
+     */
+    synchronized void clear() {
+        this.canonical.clear();
+        this.usages.clear();
+        this.trees.clear();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void replaceChildren(CommandNode<?> node, Map<CommandNode<?>, CommandNode<?>> processed) {
+        List<CommandNode<?>> replacements = null;
+        for (CommandNode<?> child : node.getChildren()) {
+            CommandNode<?> canonical = processed.get(child);
+            if (canonical != null && canonical != child) {
+                if (replacements == null) {
+                    replacements = new ArrayList<>();
+                }
+                replacements.add(canonical);
+            }
+        }
+        if (replacements == null) {
+            return;
+        }
+
+        Map children = CommandNodeAccessor.children(node);
+        Map literals = CommandNodeAccessor.literals(node);
+        Map arguments = CommandNodeAccessor.arguments(node);
+        for (CommandNode<?> replacement : replacements) {
+            String name = replacement.getName();
+            children.put(name, replacement);
+            if (literals.containsKey(name)) {
+                literals.put(name, replacement);
+            }
+            if (arguments.containsKey(name)) {
+                arguments.put(name, replacement);
+            }
+        }
+    }
+
+    /**
+     * The key of a canonical instance, and the number of interned trees using it.
+     */
+    private static final class Usage {
+        private final Key key;
+        private int trees;
+
+        Usage(Key key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * The structure of a node, used to find identical nodes.
+     */
+    private static final class Key {
+        private final Class<?> type;
+        private final String name;
+        private final Object argumentType;
+        private final Object suggestionProvider;
+        private final Object command;
+        private final Object requirement;
+        private final Object redirect;
+        private final Object redirectModifier;
+        private final boolean fork;
+        private final List<CommandNode<?>> children;
+        private final int hashCode;
+
+        Key(CommandNode<?> node) {
+            this.type = node.getClass();
+            this.name = node.getName();
+            if (node instanceof ArgumentCommandNode) {
+                this.argumentType = ((ArgumentCommandNode<?, ?>) node).getType();
+                this.suggestionProvider = ((ArgumentCommandNode<?, ?>) node).getCustomSuggestions();
+            } else {
+                this.argumentType = null;
+                this.suggestionProvider = null;
+            }
+            this.command = node.getCommand();
+            this.requirement = node.getRequirement();
+            this.redirect = node.getRedirect();
+            this.redirectModifier = node.getRedirectModifier();
+            this.fork = node.isFork();
+            this.children = new ArrayList<>(node.getChildren());
+
+            int hash = this.type.hashCode();
+            hash = 31 * hash + this.name.hashCode();
+            hash = 31 * hash + Objects.hashCode(this.argumentType);
+            hash = 31 * hash + System.identityHashCode(this.suggestionProvider);
+            hash = 31 * hash + System.identityHashCode(this.command);
+            hash = 31 * hash + System.identityHashCode(this.requirement);
+            hash = 31 * hash + System.identityHashCode(this.redirect);
+            hash = 31 * hash + System.identityHashCode(this.redirectModifier);
+            hash = 31 * hash + Boolean.hashCode(this.fork);
+            for (CommandNode<?> child : this.children) {
+                hash = 31 * hash + System.identityHashCode(child);
+            }
+            this.hashCode = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            if (this.hashCode != that.hashCode ||
+                    this.type != that.type ||
+                    this.fork != that.fork ||
+                    !this.name.equals(that.name) ||
+                    !Objects.equals(this.argumentType, that.argumentType) ||
+                    this.suggestionProvider != that.suggestionProvider ||
+                    this.command != that.command ||
+                    this.requirement != that.requirement ||
+                    this.redirect != that.redirect ||
+                    this.redirectModifier != that.redirectModifier ||
+                    this.children.size() != that.children.size()) {
+                return false;
+            }
+            for (int i = 0; i < this.children.size(); i++) {
+                if (this.children.get(i) != that.children.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
+
+}
@@ -26,8 +26,7 @@
 package me.lucko.commodore;
 
 import com.destroystokyo.paper.event.brigadier.AsyncPlayerSendCommandsEvent;
-import com.mojang.brigadier.builder.LiteralArgumentBuilder;
-import com.mojang.brigadier.tree.CommandNode;
+import com.mojang.brigadier.suggestion.SuggestionProvider;
 import com.mojang.brigadier.tree.LiteralCommandNode;
 import com.mojang.brigadier.tree.RootCommandNode;
 
@@ -35,91 +34,297 @@ import org.bukkit.command.Command;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.RegisteredServiceProvider;
+import org.bukkit.plugin.ServicePriority;
+import org.bukkit.plugin.ServicesManager;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 final class PaperCommodore extends AbstractCommodore implements Commodore, Listener {
 
     static {
-        try {
-            Class.forName("com.destroystokyo.paper.event.brigadier.AsyncPlayerSendCommandsEvent");
-        } catch (ClassNotFoundException e) {
-            throw new UnsupportedOperationException("Not running on modern Paper!", e);
+        if (!Environment.get().hasPaperSendCommandsEvent()) {
+            throw new UnsupportedOperationException("Not running on modern Paper!");
         }
     }
 
-    private final List<CommodoreCommand> commands = new ArrayList<>();
+    // the maximum number of fragments to cache for each registry snapshot
+    private static final int MAX_CACHED_FRAGMENTS = 256;
 
-    PaperCommodore(Plugin plugin) {
+    // registrations, in the order they were registered. guarded by writeLock
+    private final List<Registration> registrations = new ArrayList<>();
+    // the nodes sent by this instance's listener, published as an immutable snapshot
+    // which is rebuilt whenever the registrations (or contributions to the shared runtime) change
+    private volatile Registry registry = new Registry(Collections.emptyList(), new CommandEntry[0], null);
+    private final Object writeLock = new Object();
+    // limits the size of the nodes sent to each player, or null if unlimited
+    private final TreeBudget treeBudget;
+
+    // the shared runtime published by this instance, or null
+    private SharedRuntime sharedRuntime = null;
+    // the shared runtime published by another instance which this instance contributes to, and its owner, or null
+    private volatile BiConsumer<Object, Map<Predicate<? super Player>, List<Supplier<List<LiteralCommandNode<?>>>>>> remoteRuntime = null;
+    private volatile Plugin remoteRuntimeOwner = null;
+
+    PaperCommodore(Plugin plugin, CommodoreOptions options) {
+        super(plugin, options);
+        this.treeBudget = TreeBudget.of(options);
+        if (options.getAsyncSuggestionThreads() != 0) {
+            // suggestions are resolved by the server's dispatcher, so there is nothing to run on the pool
+            plugin.getLogger().warning("Asynchronous suggestions are not supported on Paper and will be ignored");
+        }
+        if (options.isSharedRuntime()) {
+            connect();
+        }
         plugin.getServer().getPluginManager().registerEvents(this, plugin);
     }
 
+    /**
+     * Publishes a shared runtime, or contributes to one published by another copy of commodore.
+     */
+    @SuppressWarnings("unchecked")
+    private void connect() {
+        ServicesManager services = this.plugin.getServer().getServicesManager();
+        RegisteredServiceProvider<?> existing = SharedRuntime.find(services);
+        if (existing == null) {
+            this.sharedRuntime = new SharedRuntime(this::rebuild);
+            services.register(SharedRuntime.class, this.sharedRuntime, this.plugin, ServicePriority.Normal);
+        } else if (SharedRuntime.isCompatible(existing)) {
+            this.remoteRuntime = (BiConsumer<Object, Map<Predicate<? super Player>, List<Supplier<List<LiteralCommandNode<?>>>>>>) existing.getProvider();
+            this.remoteRuntimeOwner = existing.getPlugin();
+        }
+        // otherwise published by an incompatible version - stay standalone
+    }
+
+    /**
+     * Applies a change to the registrations, and publishes the result.
+     *
+     * @param action the change to apply to the registrations
+     */
+    private void update(Consumer<List<Registration>> action) {
+        synchronized (this.writeLock) {
+            action.accept(this.registrations);
+            rebuild();
+
+            BiConsumer<Object, Map<Predicate<? super Player>, List<Supplier<List<LiteralCommandNode<?>>>>>> remoteRuntime = this.remoteRuntime;
+            if (remoteRuntime != null) {
+                remoteRuntime.accept(this, getContribution());
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the snapshot sent by this instance's listener, from the registrations
+     * and any contributions to the shared runtime.
+     */
+    private void rebuild() {
+        synchronized (this.writeLock) {
+            // the index of each distinct permission test
+            Map<Predicate<? super Player>, Integer> groups = new LinkedHashMap<>();
+            List<CommandEntry> entries = new ArrayList<>(this.registrations.size());
+            for (Registration registration : this.registrations) {
+                int group = groups.computeIfAbsent(registration.permissionTest, x -> groups.size());
+                entries.add(new CommandEntry(group, registration::nodes));
+            }
+            if (this.sharedRuntime != null) {
+                // contributions are grouped by permission test, so their nodes are ordered
+                // after ours, in the order the contributions were made
+                for (Map<Predicate<? super Player>, List<Supplier<List<LiteralCommandNode<?>>>>> contribution : this.sharedRuntime.getContributions()) {
+                    contribution.forEach((permissionTest, nodes) -> {
+                        int group = groups.computeIfAbsent(permissionTest, x -> groups.size());
+                        for (Supplier<List<LiteralCommandNode<?>>> supplier : nodes) {
+                            entries.add(new CommandEntry(group, supplier));
+                        }
+                    });
+                }
+            }
+            this.registry = new Registry(new ArrayList<>(groups.keySet()), entries.toArray(new CommandEntry[0]), this.treeBudget);
+        }
+    }
+
+    /**
+     * Gets the nodes registered with this instance, in the form used by {@link SharedRuntime}.
+     *
+     * @return the nodes, grouped by permission test
+     */
+    private Map<Predicate<? super Player>, List<Supplier<List<LiteralCommandNode<?>>>>> getContribution() {
+        Map<Predicate<? super Player>, List<Supplier<List<LiteralCommandNode<?>>>>> contribution = new LinkedHashMap<>();
+        for (Registration registration : this.registrations) {
+            contribution.computeIfAbsent(registration.permissionTest, x -> new ArrayList<>()).add(registration::nodes);
+        }
+        return contribution;
+    }
+
     @Override
-    public void register(LiteralCommandNode<?> node) {
-        Objects.requireNonNull(node, "node");
-        this.commands.add(new CommodoreCommand(node, null));
+    protected SuggestionProvider<?> getSuggestionProvider(Command command) {
+        return DUMMY_SUGGESTION_PROVIDER;
     }
 
     @Override
-    public void register(Command command, LiteralCommandNode<?> node, Predicate<? super Player> permissionTest) {
-        Objects.requireNonNull(command, "command");
-        Objects.requireNonNull(node, "node");
-        Objects.requireNonNull(permissionTest, "permissionTest");
-
-        try {
-            setRequiredHackyFieldsRecursively(node, DUMMY_SUGGESTION_PROVIDER);
-        } catch (Throwable e) {
-            e.printStackTrace();
-        }
-
-        Collection<String> aliases = getAliases(command);
-        if (!aliases.contains(node.getLiteral())) {
-            node = renameLiteralNode(node, command.getName());
-        }
-
-        for (String alias : aliases) {
-            if (node.getLiteral().equals(alias)) {
-                this.commands.add(new CommodoreCommand(node, permissionTest));
-            } else {
-                LiteralCommandNode<Object> redirectNode = LiteralArgumentBuilder.literal(alias)
-                        .redirect((LiteralCommandNode<Object>) node)
-                        .build();
-                this.commands.add(new CommodoreCommand(redirectNode, permissionTest));
+    protected void registerPrepared(List<Registration> registrations) {
+        replacePrepared(Collections.emptyList(), registrations);
+    }
+
+    @Override
+    protected void unregisterPrepared(List<Registration> registrations) {
+        replacePrepared(registrations, Collections.emptyList());
+    }
+
+    @Override
+    protected void replacePrepared(List<Registration> unregistered, List<Registration> registered) {
+        Set<Registration> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(unregistered);
+
+        // applied in a single update, so sends never see a snapshot with neither registration
+        update(registrations -> {
+            if (!removed.isEmpty()) {
+                registrations.removeIf(removed::contains);
             }
-        }
+            registrations.addAll(registered);
+        });
+    }
+
+    @Override
+    protected ResendScheduler.SendState getSendState(Player player) {
+        // each snapshot is a distinct version of the registrations
+        Registry registry = this.registry;
+        return new ResendScheduler.SendState(registry, registry.getSignature(player));
     }
 
     @EventHandler
     @SuppressWarnings("deprecation") // draft API, ok...
     public void onPlayerSendCommandsEvent(AsyncPlayerSendCommandsEvent<?> event) {
+        if (this.remoteRuntime != null) {
+            // handled by the shared runtime
+            return;
+        }
         if (event.isAsynchronous() || !event.hasFiredAsync()) {
-            for (CommodoreCommand command : this.commands) {
-                command.apply(event.getPlayer(), event.getCommandNode());
-            }
+            apply(event.getPlayer(), event.getCommandNode());
+        }
+    }
+
+    @EventHandler
+    public void onPluginDisable(PluginDisableEvent e) {
+        if (this.remoteRuntime != null && e.getPlugin() == this.remoteRuntimeOwner) {
+            // the shared runtime is going away, handle sends ourselves again
+            this.remoteRuntime = null;
+            this.remoteRuntimeOwner = null;
         }
     }
 
-    private static final class CommodoreCommand {
-        private final LiteralCommandNode<?> node;
-        private final Predicate<? super Player> permissionTest;
+    /**
+     * Adds the nodes the player is allowed to see to the root node being sent to them.
+     *
+     * @param player the player
+     * @param root the root node
+     */
+    void apply(Player player, RootCommandNode<?> root) {
+        // only read the clock when metrics are enabled
+        CommodoreMetrics metrics = CommodoreMetrics.INSTANCE;
+        boolean recordMetrics = metrics.isEnabled();
+        long start = recordMetrics ? System.nanoTime() : 0;
+
+        // test each distinct predicate once, then splice the prebuilt
+        // fragment for the resulting signature into the root in one go
+        Registry registry = this.registry;
+        PermissionSignature signature = registry.getSignature(player);
+        TreeBudget.Result fragment = registry.getFragment(signature);
+        List<LiteralCommandNode<?>> nodes = fragment.nodes;
+        int removed = replaceChildren(root, nodes);
 
-        private CommodoreCommand(LiteralCommandNode<?> node, Predicate<? super Player> permissionTest) {
-            this.node = node;
-            this.permissionTest = permissionTest;
+        if (this.resendScheduler.isTracking()) {
+            this.resendScheduler.sent(player, new ResendScheduler.SendState(registry, signature));
         }
 
+        if (recordMetrics) {
+            metrics.recordSend(System.nanoTime() - start, nodes.size(), removed);
+            if (fragment.bytesSaved != 0) {
+                metrics.recordPruned(fragment.bytesSaved, fragment.nodesPruned);
+            }
+        }
+    }
+
+    /**
+     * An immutable snapshot of the registered nodes.
+     *
+     * <p>Players who pass the same set of permission tests share a {@link PermissionSignature},
+     * and are sent the same prebuilt fragment of nodes. Fragments are cached with the snapshot,
+     * so they are discarded whenever the registered nodes change. The {@link TreeBudget}, if any,
+     * is applied once as each fragment is built.</p>
+     */
+    private static final class Registry {
+        private final Predicate<? super Player>[] permissionTests;
+        private final CommandEntry[] entries;
+        private final TreeBudget treeBudget;
+        private final Map<PermissionSignature, TreeBudget.Result> fragments = new ConcurrentHashMap<>();
+
         @SuppressWarnings({"unchecked", "rawtypes"})
-        public void apply(Player player, RootCommandNode<?> root) {
-            if (this.permissionTest != null && !this.permissionTest.test(player)) {
-                return;
+        Registry(List<Predicate<? super Player>> permissionTests, CommandEntry[] entries, TreeBudget treeBudget) {
+            this.permissionTests = permissionTests.toArray(new Predicate[0]);
+            this.entries = entries;
+            this.treeBudget = treeBudget;
+        }
+
+        PermissionSignature getSignature(Player player) {
+            return PermissionSignature.compute(this.permissionTests, player);
+        }
+
+        TreeBudget.Result getFragment(PermissionSignature signature) {
+            TreeBudget.Result fragment = this.fragments.get(signature);
+            if (fragment == null) {
+                fragment = buildFragment(signature);
+                if (this.fragments.size() >= MAX_CACHED_FRAGMENTS) {
+                    this.fragments.clear();
+                }
+                this.fragments.put(signature, fragment);
             }
-            removeChild(root, this.node.getName());
-            root.addChild((CommandNode) this.node);
+            return fragment;
+        }
+
+        private TreeBudget.Result buildFragment(PermissionSignature signature) {
+            // the nodes from each passing registration in the order they were registered, where later
+            // nodes replace earlier nodes with the same name, regardless of their permission test.
+            // lazily registered nodes are built here, the first time a player passing their test is sent them
+            Map<String, LiteralCommandNode<?>> nodes = new LinkedHashMap<>();
+            for (CommandEntry entry : this.entries) {
+                if (signature.get(entry.group)) {
+                    for (LiteralCommandNode<?> node : entry.nodes.get()) {
+                        nodes.remove(node.getName());
+                        nodes.put(node.getName(), node);
+                    }
+                }
+            }
+            List<LiteralCommandNode<?>> fragment = Collections.unmodifiableList(Arrays.asList(nodes.values().toArray(new LiteralCommandNode<?>[0])));
+            return this.treeBudget == null ? new TreeBudget.Result(fragment, 0, 0) : this.treeBudget.apply(fragment);
+        }
+    }
+
+    /**
+     * The nodes of a registration, which are sent to players passing the permission test of its group.
+     */
+    private static final class CommandEntry {
+        // the index of the permission test in the registry
+        private final int group;
+        // the nodes of the registration, which may not have been built yet
+        private final Supplier<List<LiteralCommandNode<?>>> nodes;
+
+        private CommandEntry(int group, Supplier<List<LiteralCommandNode<?>>> nodes) {
+            this.group = group;
+            this.nodes = nodes;
         }
     }
 
@@ -0,0 +1,270 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import org.bukkit.entity.Player;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Caches the results of permission tests passed to
+ * {@link Commodore#register(org.bukkit.command.Command, com.mojang.brigadier.tree.LiteralCommandNode, Predicate)}.
+ *
+ * <p>Results are keyed by player {@link UUID} and predicate identity. The cache
+ * holds entries for at most {@code maximumSize} players, and each result expires
+ * after the configured duration.</p>
+ *
+ * <p>Permission plugins (or the plugin owning the cache) should call
+ * {@link #invalidate(Player)} or {@link #invalidateAll()} when permissions change.
+ * This also makes sure the next {@link Commodore#requestResend(Player)} for the
+ * player isn't skipped by the instances using the cache.</p>
+ *
+ * <pre>{@code
+ * PermissionCache cache = PermissionCache.create(1000, 30, TimeUnit.SECONDS);
+ * CommodoreOptions options = CommodoreOptions.builder().cachePermissions(cache).build();
+ * Commodore commodore = CommodoreProvider.getCommodore(plugin, options);
+ * }</pre>
+ */
+public final class PermissionCache {
+
+    /**
+     * Creates a new permission cache.
+     *
+     * @param maximumSize the maximum number of players to hold results for
+     * @param expireAfter how long results should be cached for
+     * @param unit the unit of {@code expireAfter}
+     * @return a new cache
+     */
+    public static PermissionCache create(int maximumSize, long expireAfter, TimeUnit unit) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        if (expireAfter <= 0) {
+            throw new IllegalArgumentException("expireAfter must be positive");
+        }
+        Objects.requireNonNull(unit, "unit");
+        return new PermissionCache(maximumSize, unit.toNanos(expireAfter));
+    }
+
+    private final int maximumSize;
+    private final long expireAfterNanos;
+
+    // player uuid -> results for that player
+    private final Map<UUID, PlayerEntry> entries = new ConcurrentHashMap<>();
+
+    // notified after results are invalidated, with the player's uuid, or null for all players
+    private final List<Consumer<UUID>> invalidationListeners = new CopyOnWriteArrayList<>();
+
+    private PermissionCache(int maximumSize, long expireAfterNanos) {
+        this.maximumSize = maximumSize;
+        this.expireAfterNanos = expireAfterNanos;
+    }
+
+    /**
+     * Returns a predicate which caches the results of the given permission test.
+     *
+     * <p>Predicates returned for the same permission test are equal to each other.</p>
+     *
+     * @param permissionTest the permission test
+     * @return a caching predicate
+     */
+    public Predicate<Player> wrap(Predicate<? super Player> permissionTest) {
+        Objects.requireNonNull(permissionTest, "permissionTest");
+        return new CachingPredicate(this, permissionTest);
+    }
+
+    private boolean test(Player player, Predicate<? super Player> permissionTest) {
+        UUID uniqueId = player.getUniqueId();
+        long now = System.nanoTime();
+
+        PlayerEntry entry = this.entries.get(uniqueId);
+        if (entry == null) {
+            entry = this.entries.computeIfAbsent(uniqueId, x -> new PlayerEntry());
+            if (this.entries.size() > this.maximumSize) {
+                evictEldest(uniqueId);
+            }
+        }
+        entry.lastAccess = now;
+
+        long generation;
+        synchronized (entry) {
+            Result result = entry.results.get(permissionTest);
+            if (result != null && now - result.expiry < 0) {
+                return result.value;
+            }
+            generation = entry.generation;
+        }
+
+        // test outside of the lock, the predicate may be slow
+        boolean value = permissionTest.test(player);
+
+        synchronized (entry) {
+            // don't store results computed concurrently with an invalidation
+            if (entry.generation == generation) {
+                entry.results.put(permissionTest, new Result(value, now + this.expireAfterNanos));
+            }
+        }
+        return value;
+    }
+
+    private void evictEldest(UUID added) {
+        Map.Entry<UUID, PlayerEntry> eldest = null;
+        for (Map.Entry<UUID, PlayerEntry> entry : this.entries.entrySet()) {
+            if (!entry.getKey().equals(added) && (eldest == null || entry.getValue().lastAccess - eldest.getValue().lastAccess < 0)) {
+                eldest = entry;
+            }
+        }
+        if (eldest != null) {
+            this.entries.remove(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * Invalidates all cached results for the given player.
+     *
+     * @param player the player
+     */
+    public void invalidate(Player player) {
+        Objects.requireNonNull(player, "player");
+        invalidate(player.getUniqueId());
+    }
+
+    /**
+     * Invalidates all cached results for the player with the given unique id.
+     *
+     * @param uniqueId the player's unique id
+     */
+    public void invalidate(UUID uniqueId) {
+        Objects.requireNonNull(uniqueId, "uniqueId");
+        PlayerEntry entry = this.entries.remove(uniqueId);
+        if (entry != null) {
+            entry.invalidate();
+        }
+        for (Consumer<UUID> listener : this.invalidationListeners) {
+            listener.accept(uniqueId);
+        }
+    }
+
+    /**
+     * Invalidates all cached results.
+     */
+    public void invalidateAll() {
+        for (Iterator<PlayerEntry> it = this.entries.values().iterator(); it.hasNext(); ) {
+            it.next().invalidate();
+            it.remove();
+        }
+        for (Consumer<UUID> listener : this.invalidationListeners) {
+            listener.accept(null);
+        }
+    }
+
+    /**
+     * Adds a listener which is called after results are invalidated, with the
+     * player's unique id, or null if all results were invalidated.
+     *
+     * @param listener the listener
+     */
+    void addInvalidationListener(Consumer<UUID> listener) {
+        this.invalidationListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with {@link #addInvalidationListener(Consumer)}.
+     *
+     * @param listener the listener
+     */
+    void removeInvalidationListener(Consumer<UUID> listener) {
+        this.invalidationListeners.remove(listener);
+    }
+
+    private static final class PlayerEntry {
+        // guarded by this
+        private final Map<Predicate<?>, Result> results = new IdentityHashMap<>();
+        // incremented on every invalidation, so results computed concurrently
+        // with an invalidation are not stored. guarded by this
+        private long generation = 0;
+        // when the entry was last used, to pick which player to evict
+        private volatile long lastAccess;
+
+        synchronized void invalidate() {
+            this.results.clear();
+            this.generation++;
+        }
+    }
+
+    private static final class Result {
+        private final boolean value;
+        private final long expiry;
+
+        private Result(boolean value, long expiry) {
+            this.value = value;
+            this.expiry = expiry;
+        }
+    }
+
+    /**
+     * A permission test whose results are cached, equal to other predicates
+     * wrapping the same test in the same cache.
+     */
+    private static final class CachingPredicate implements Predicate<Player> {
+        private final PermissionCache cache;
+        private final Predicate<? super Player> permissionTest;
+
+        private CachingPredicate(PermissionCache cache, Predicate<? super Player> permissionTest) {
+            this.cache = cache;
+            this.permissionTest = permissionTest;
+        }
+
+        @Override
+        public boolean test(Player player) {
+            return this.cache.test(player, this.permissionTest);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CachingPredicate)) return false;
+            CachingPredicate that = (CachingPredicate) o;
+            return this.cache == that.cache && this.permissionTest == that.permissionTest;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(this.cache) + System.identityHashCode(this.permissionTest);
+        }
+    }
+
+}
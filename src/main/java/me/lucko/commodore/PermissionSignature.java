@@ -0,0 +1,91 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * A compact bitset recording which of a list of permission tests a player passes.
+ *
+ * <p>Players with equal signatures are sent the same command data.</p>
+ */
+final class PermissionSignature {
+
+    /**
+     * Computes the signature of the given player.
+     *
+     * <p>Each test is evaluated at most once. A {@code null} test is treated as always passing.</p>
+     *
+     * @param permissionTests the permission tests
+     * @param player the player
+     * @return the signature
+     */
+    static PermissionSignature compute(Predicate<? super Player>[] permissionTests, Player player) {
+        long[] words = new long[(permissionTests.length + 63) >>> 6];
+        for (int i = 0; i < permissionTests.length; i++) {
+            Predicate<? super Player> permissionTest = permissionTests[i];
+            if (permissionTest == null || AbstractCommodore.testPermission(permissionTest, player)) {
+                words[i >>> 6] |= 1L << i;
+            }
+        }
+        return new PermissionSignature(words);
+    }
+
+    private final long[] words;
+    private final int hashCode;
+
+    private PermissionSignature(long[] words) {
+        this.words = words;
+        this.hashCode = Arrays.hashCode(words);
+    }
+
+    /**
+     * Gets if the test at the given index was passed.
+     *
+     * @param index the index of the test
+     * @return true if passed
+     */
+    boolean get(int index) {
+        return (this.words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PermissionSignature)) return false;
+        PermissionSignature that = (PermissionSignature) o;
+        return this.hashCode == that.hashCode && Arrays.equals(this.words, that.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+}
@@ -26,12 +26,11 @@
 package me.lucko.commodore;
 
 import com.mojang.brigadier.CommandDispatcher;
-import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.suggestion.SuggestionProvider;
+import com.mojang.brigadier.tree.CommandNode;
 import com.mojang.brigadier.tree.LiteralCommandNode;
 import com.mojang.brigadier.tree.RootCommandNode;
 
-import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -40,133 +39,180 @@ import org.bukkit.event.player.PlayerCommandSendEvent;
 import org.bukkit.event.server.ServerLoadEvent;
 import org.bukkit.plugin.Plugin;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
-import java.util.Set;
+import java.util.Map;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 final class ReflectionCommodore extends AbstractCommodore implements Commodore {
 
-    // obc.CraftServer#console field
-    private static final Field CONSOLE_FIELD;
+    // the registered node for each name
+    private final Map<String, LiteralCommandNode<?>> registeredNodes = new LinkedHashMap<>();
+    // the nodes (normally added by bukkit) which were replaced by a registered node, restored when it is unregistered
+    private final Map<String, CommandNode<?>> replacedNodes = new HashMap<>();
+    // lazily registered nodes which haven't been built yet
+    private final List<Registration> pendingRegistrations = new ArrayList<>();
+    private final CommandDataSendListener commandDataSendListener = new CommandDataSendListener(this);
+    // caches the suggestions provided for registered arguments, null if disabled
+    private final SuggestionCache suggestionCache;
+    // computes the suggestions of AsyncSuggestionProviders off the calling thread, null if disabled
+    private final AsyncSuggestions asyncSuggestions;
+
+    // the brigadier dispatcher, resolved on first use and refreshed when the server (re)loads
+    private CommandDispatcher<?> dispatcher;
+
+    // the server's internals
+    private final CraftServerAccess server;
+
+    ReflectionCommodore(Plugin plugin, CommodoreOptions options) {
+        this(plugin, options, CraftServerAccess.Reflective.INSTANCE);
+    }
 
-    // nms.MinecraftServer#getCommandDispatcher method
-    private static final Method GET_COMMAND_DISPATCHER_METHOD;
+    ReflectionCommodore(Plugin plugin, CommodoreOptions options, CraftServerAccess server) {
+        super(plugin, options);
+        this.server = server;
+        this.suggestionCache = SuggestionCache.of(options);
+        this.asyncSuggestions = AsyncSuggestions.of(options);
+        this.plugin.getServer().getPluginManager().registerEvents(new ServerReloadListener(this), this.plugin);
+        this.plugin.getServer().getPluginManager().registerEvents(this.commandDataSendListener, this.plugin);
+    }
 
-    // nms.CommandDispatcher#getDispatcher (obfuscated) method
-    private static final Method GET_BRIGADIER_DISPATCHER_METHOD;
+    private CommandDispatcher<?> getDispatcher() {
+        CommandDispatcher<?> dispatcher = this.dispatcher;
+        if (dispatcher == null) {
+            dispatcher = this.server.getDispatcher();
+            this.dispatcher = dispatcher;
+        }
+        return dispatcher;
+    }
 
-    // obc.command.BukkitCommandWrapper constructor
-    private static final Constructor<?> COMMAND_WRAPPER_CONSTRUCTOR;
+    /**
+     * Gets the listener which filters the commands sent to players.
+     *
+     * @return the listener
+     */
+    CommandDataSendListener getCommandDataSendListener() {
+        return this.commandDataSendListener;
+    }
 
-    static {
-        try {
-            if (ReflectionUtil.minecraftVersion() >= 19) {
-                throw new UnsupportedOperationException("ReflectionCommodore is not supported on MC 1.19 or above. Switch to Paper :)");
-            }
+    @Override
+    protected SuggestionProvider<?> getSuggestionProvider(Command command) {
+        SuggestionProvider<?> provider = this.server.createCommandWrapper(command);
+        return this.suggestionCache == null ? provider : this.suggestionCache.wrap(command.getName(), provider);
+    }
 
-            final Class<?> minecraftServer;
-            final Class<?> commandDispatcher;
+    @Override
+    protected SuggestionProvider<?> getAsyncSuggestionProvider(AsyncSuggestionProvider<?> provider) {
+        // the server's provider fires sync events, so only providers which opt in are run on the executor
+        return this.asyncSuggestions == null ? provider : this.asyncSuggestions.wrap(provider);
+    }
 
-            if (ReflectionUtil.minecraftVersion() > 16) {
-                minecraftServer = ReflectionUtil.mcClass("server.MinecraftServer");
-                commandDispatcher = ReflectionUtil.mcClass("commands.CommandDispatcher");
+    @Override
+    protected void registerPrepared(List<Registration> registrations) {
+        List<LiteralCommandNode<?>> nodes = new ArrayList<>();
+        for (Registration registration : registrations) {
+            if (registration.isBuilt()) {
+                nodes.addAll(registration.nodes());
             } else {
-                minecraftServer = ReflectionUtil.nmsClass("MinecraftServer");
-                commandDispatcher = ReflectionUtil.nmsClass("CommandDispatcher");
+                this.pendingRegistrations.add(registration);
             }
+        }
+        addNodes(getDispatcher().getRoot(), nodes);
 
-            Class<?> craftServer = ReflectionUtil.obcClass("CraftServer");
-            CONSOLE_FIELD = craftServer.getDeclaredField("console");
-            CONSOLE_FIELD.setAccessible(true);
-
-            GET_COMMAND_DISPATCHER_METHOD = Arrays.stream(minecraftServer.getDeclaredMethods())
-                    .filter(method -> method.getParameterCount() == 0)
-                    .filter(method -> commandDispatcher.isAssignableFrom(method.getReturnType()))
-                    .findFirst().orElseThrow(NoSuchMethodException::new);
-            GET_COMMAND_DISPATCHER_METHOD.setAccessible(true);
-
-            GET_BRIGADIER_DISPATCHER_METHOD = Arrays.stream(commandDispatcher.getDeclaredMethods())
-                    .filter(method -> method.getParameterCount() == 0)
-                    .filter(method -> CommandDispatcher.class.isAssignableFrom(method.getReturnType()))
-                    .findFirst().orElseThrow(NoSuchMethodException::new);
-            GET_BRIGADIER_DISPATCHER_METHOD.setAccessible(true);
-
-            Class<?> commandWrapperClass = ReflectionUtil.obcClass("command.BukkitCommandWrapper");
-            COMMAND_WRAPPER_CONSTRUCTOR = commandWrapperClass.getConstructor(craftServer, Command.class);
-
-        } catch (ReflectiveOperationException e) {
-            throw new ExceptionInInitializerError(e);
+        for (Registration registration : registrations) {
+            if (registration.aliases != null) {
+                this.commandDataSendListener.add(registration.aliases, registration.permissionTest);
+            }
         }
     }
 
-    private final Plugin plugin;
-    private final List<LiteralCommandNode<?>> registeredNodes = new ArrayList<>();
+    private void addNodes(RootCommandNode<?> root, List<LiteralCommandNode<?>> nodes) {
+        for (LiteralCommandNode<?> node : nodes) {
+            // remember the node being replaced, unless it is one of ours
+            CommandNode<?> existing = root.getChild(node.getName());
+            if (existing != null && this.registeredNodes.get(node.getName()) != existing) {
+                this.replacedNodes.put(node.getName(), existing);
+            }
+            this.registeredNodes.put(node.getName(), node);
+        }
 
-    ReflectionCommodore(Plugin plugin) {
-        this.plugin = plugin;
-        this.plugin.getServer().getPluginManager().registerEvents(new ServerReloadListener(this), this.plugin);
+        // add all nodes to the root in a single pass
+        replaceChildren(root, nodes);
     }
 
-    private CommandDispatcher<?> getDispatcher() {
-        try {
-            Object mcServerObject = CONSOLE_FIELD.get(Bukkit.getServer());
-            Object commandDispatcherObject = GET_COMMAND_DISPATCHER_METHOD.invoke(mcServerObject);
-            return (CommandDispatcher<?>) GET_BRIGADIER_DISPATCHER_METHOD.invoke(commandDispatcherObject);
-        } catch (ReflectiveOperationException e) {
-            throw new RuntimeException(e);
+    @Override
+    void unregisterAll() {
+        super.unregisterAll();
+        // only called when the plugin is disabled
+        if (this.asyncSuggestions != null) {
+            this.asyncSuggestions.shutdown();
         }
     }
 
     @SuppressWarnings({"rawtypes", "unchecked"})
     @Override
-    public void register(LiteralCommandNode<?> node) {
-        Objects.requireNonNull(node, "node");
+    protected void unregisterPrepared(List<Registration> registrations) {
+        RootCommandNode root = getDispatcher().getRoot();
+        for (Registration registration : registrations) {
+            if (!registration.isBuilt()) {
+                this.pendingRegistrations.removeIf(pending -> pending == registration);
+                continue;
+            }
 
-        CommandDispatcher dispatcher = getDispatcher();
-        RootCommandNode root = dispatcher.getRoot();
+            for (LiteralCommandNode<?> node : registration.nodes()) {
+                String name = node.getName();
+                if (!this.registeredNodes.remove(name, node)) {
+                    // a different node has since been registered with the same name
+                    continue;
+                }
+
+                CommandNode<?> replaced = this.replacedNodes.remove(name);
+                if (root.getChild(name) == node) {
+                    removeChild(root, name);
+                    if (replaced != null) {
+                        root.addChild(replaced);
+                    }
+                }
+            }
+        }
 
-        removeChild(root, node.getName());
-        root.addChild(node);
-        this.registeredNodes.add(node);
+        this.commandDataSendListener.rebuild(getRegistrations());
     }
 
-    @SuppressWarnings("unchecked")
     @Override
-    public void register(Command command, LiteralCommandNode<?> node, Predicate<? super Player> permissionTest) {
-        Objects.requireNonNull(command, "command");
-        Objects.requireNonNull(node, "node");
-        Objects.requireNonNull(permissionTest, "permissionTest");
-
-        try {
-            SuggestionProvider<?> wrapper = (SuggestionProvider<?>) COMMAND_WRAPPER_CONSTRUCTOR.newInstance(this.plugin.getServer(), command);
-            setRequiredHackyFieldsRecursively(node, wrapper);
-        } catch (Throwable e) {
-            e.printStackTrace();
-        }
+    protected ResendScheduler.SendState getSendState(Player player) {
+        return this.commandDataSendListener.getSendState(player);
+    }
 
-        Collection<String> aliases = getAliases(command);
-        if (!aliases.contains(node.getLiteral())) {
-            node = renameLiteralNode(node, command.getName());
+    /**
+     * Builds the lazily registered nodes the player is allowed to see, and adds them to the dispatcher.
+     *
+     * @param player the player being sent the command tree
+     * @return true if any nodes were built
+     */
+    private boolean buildPending(Player player) {
+        if (this.pendingRegistrations.isEmpty()) {
+            return false;
         }
 
-        for (String alias : aliases) {
-            if (node.getLiteral().equals(alias)) {
-                register(node);
-            } else {
-                register(LiteralArgumentBuilder.literal(alias).redirect((LiteralCommandNode<Object>) node).build());
+        List<LiteralCommandNode<?>> nodes = new ArrayList<>();
+        for (Iterator<Registration> it = this.pendingRegistrations.iterator(); it.hasNext(); ) {
+            Registration registration = it.next();
+            if (testPermission(registration.permissionTest, player)) {
+                nodes.addAll(registration.nodes());
+                it.remove();
             }
         }
-
-        this.plugin.getServer().getPluginManager().registerEvents(new CommandDataSendListener(command, permissionTest), this.plugin);
+        if (nodes.isEmpty()) {
+            return false;
+        }
+        addNodes(getDispatcher().getRoot(), nodes);
+        return true;
     }
 
     /**
@@ -179,16 +225,21 @@ final class ReflectionCommodore extends AbstractCommodore implements Commodore {
             this.commodore = commodore;
         }
 
-        @SuppressWarnings({"rawtypes", "unchecked"})
         @EventHandler
         public void onLoad(ServerLoadEvent e) {
-            CommandDispatcher dispatcher = this.commodore.getDispatcher();
-            RootCommandNode root = dispatcher.getRoot();
-
-            for (LiteralCommandNode<?> node : this.commodore.registeredNodes) {
-                removeChild(root, node.getName());
-                root.addChild(node);
+            // the dispatcher instance may have been swapped out by a reload
+            CommandDispatcher<?> dispatcher = this.commodore.server.getDispatcher();
+            this.commodore.dispatcher = dispatcher;
+            RootCommandNode<?> root = dispatcher.getRoot();
+
+            // only re-add nodes which are no longer present in the root
+            List<LiteralCommandNode<?>> missing = new ArrayList<>();
+            for (LiteralCommandNode<?> node : this.commodore.registeredNodes.values()) {
+                if (root.getChild(node.getName()) != node) {
+                    missing.add(node);
+                }
             }
+            this.commodore.addNodes(root, missing);
         }
     }
 
@@ -196,32 +247,138 @@ final class ReflectionCommodore extends AbstractCommodore implements Commodore {
      * Removes minecraft namespaced argument data, & data for players without permission to view the
      * corresponding commands.
      */
-    private static final class CommandDataSendListener implements Listener {
-        private final Set<String> aliases;
-        private final Set<String> minecraftPrefixedAliases;
-        private final Predicate<? super Player> permissionTest;
+    static final class CommandDataSendListener implements Listener {
+        // marker group for 'minecraft:' prefixed aliases, which are always removed
+        private static final PermissionGroup ALWAYS_HIDDEN = new PermissionGroup(-1, player -> false);
 
-        CommandDataSendListener(Command pluginCommand, Predicate<? super Player> permissionTest) {
-            this.aliases = new HashSet<>(getAliases(pluginCommand));
-            this.minecraftPrefixedAliases = this.aliases.stream().map(alias -> "minecraft:" + alias).collect(Collectors.toSet());
-            this.permissionTest = permissionTest;
+        private final ReflectionCommodore commodore;
+
+        // alias -> the permission group it belongs to
+        private final Map<String, PermissionGroup> index = new HashMap<>();
+        private final Map<Predicate<? super Player>, PermissionGroup> groups = new HashMap<>();
+        // the permission test of each group, indexed by id
+        private Predicate<? super Player>[] permissionTests = newPredicateArray(0);
+        // incremented whenever the groups or index change
+        private int version = 0;
+
+        private CommandDataSendListener(ReflectionCommodore commodore) {
+            this.commodore = commodore;
         }
 
-        @EventHandler
-        public void onCommandSend(PlayerCommandSendEvent e) {
+        void rebuild(Collection<Registration> registrations) {
+            this.index.clear();
+            this.groups.clear();
+            this.permissionTests = newPredicateArray(0);
+            this.version++;
+            for (Registration registration : registrations) {
+                if (registration.aliases != null) {
+                    add(registration.aliases, registration.permissionTest);
+                }
+            }
+        }
+
+        void add(AliasPlan aliases, Predicate<? super Player> permissionTest) {
+            PermissionGroup group = this.groups.computeIfAbsent(permissionTest, test -> {
+                this.permissionTests = Arrays.copyOf(this.permissionTests, this.groups.size() + 1);
+                this.permissionTests[this.groups.size()] = test;
+                return new PermissionGroup(this.groups.size(), test);
+            });
+            this.version++;
+            for (String alias : aliases.all()) {
+                this.index.put(alias, group);
+            }
+
             // always remove 'minecraft:' prefixed aliases added by craftbukkit.
             // this happens because bukkit thinks our injected commands are vanilla commands.
-            e.getCommands().removeAll(this.minecraftPrefixedAliases);
+            for (String alias : aliases.minecraftPrefixedAliases()) {
+                this.index.put(alias, ALWAYS_HIDDEN);
+            }
+        }
+
+        @EventHandler
+        public void onCommandSend(PlayerCommandSendEvent e) {
+            filter(e.getPlayer(), e.getCommands());
+
+            ResendScheduler resendScheduler = this.commodore.resendScheduler;
+            if (this.commodore.buildPending(e.getPlayer())) {
+                // the tree being sent was copied from the dispatcher before the event was called,
+                // so it doesn't include the new nodes. forget the state of the last tree sent, so
+                // the resend isn't skipped, and resend it along with any other requested resends
+                resendScheduler.invalidate(e.getPlayer().getUniqueId());
+                resendScheduler.request(e.getPlayer());
+            } else if (resendScheduler.isTracking()) {
+                resendScheduler.sent(e.getPlayer(), getSendState(e.getPlayer()));
+            }
+        }
+
+        ResendScheduler.SendState getSendState(Player player) {
+            return new ResendScheduler.SendState(this.version, PermissionSignature.compute(this.permissionTests, player));
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static Predicate<? super Player>[] newPredicateArray(int length) {
+            return new Predicate[length];
+        }
+
+        /**
+         * Removes the aliases the player isn't allowed to see from the commands being sent to them.
+         *
+         * @param player the player
+         * @param commands the command names being sent
+         */
+        void filter(Player player, Collection<String> commands) {
+            CommodoreMetrics metrics = CommodoreMetrics.INSTANCE;
+            boolean recordMetrics = metrics.isEnabled();
+            long start = recordMetrics ? System.nanoTime() : 0;
+            int removed = 0;
+
+            // the result of each group's permission test for the player, tested lazily
+            // 0 = not yet tested, 1 = passed, 2 = failed
+            byte[] results = new byte[this.groups.size()];
+
+            for (Iterator<String> it = commands.iterator(); it.hasNext(); ) {
+                PermissionGroup group = this.index.get(it.next());
+                if (group == null) {
+                    continue;
+                }
+
+                // remove the alias if the player doesn't pass the permission test
+                if (group == ALWAYS_HIDDEN || !group.test(player, results)) {
+                    it.remove();
+                    removed++;
+                }
+            }
+
+            if (recordMetrics) {
+                metrics.recordSend(System.nanoTime() - start, 0, removed);
+            }
+        }
+    }
+
+    /**
+     * A group of aliases sharing the same permission test.
+     */
+    private static final class PermissionGroup {
+        private final int id;
+        private final Predicate<? super Player> permissionTest;
+
+        PermissionGroup(int id, Predicate<? super Player> permissionTest) {
+            this.id = id;
+            this.permissionTest = permissionTest;
+        }
 
-            // remove the actual aliases if the player doesn't pass the permission test
-            if (!this.permissionTest.test(e.getPlayer())) {
-                e.getCommands().removeAll(this.aliases);
+        boolean test(Player player, byte[] results) {
+            byte result = results[this.id];
+            if (result == 0) {
+                result = testPermission(this.permissionTest, player) ? (byte) 1 : (byte) 2;
+                results[this.id] = result;
             }
+            return result == 1;
         }
     }
 
     static void ensureSetup() {
-        // do nothing - this is only called to trigger the static initializer
+        CraftServerAccess.Reflective.ensureSetup();
     }
 
 }
@@ -25,13 +25,29 @@
 
 package me.lucko.commodore;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import java.lang.reflect.Method;
 
 final class ReflectionUtil {
     private static final String SERVER_VERSION = getServerVersion();
 
+    // CommandListenerWrapper#getBukkitSender (or the equivalent on Paper's command source)
+    private static final ClassValue<Method> GET_BUKKIT_SENDER = new ClassValue<Method>() {
+        @Override
+        protected Method computeValue(Class<?> type) {
+            try {
+                Method method = type.getMethod("getBukkitSender");
+                method.setAccessible(true);
+                return method;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+    };
+
     private static String getServerVersion() {
         Class<?> server = Bukkit.getServer().getClass();
         if (!server.getSimpleName().equals("CraftServer")) {
@@ -71,16 +87,39 @@ final class ReflectionUtil {
     }
 
     public static int minecraftVersion() {
+        // parsed once, see Environment
+        return Environment.get().getMinecraftVersion();
+    }
+
+    /**
+     * Gets a key identifying the sender of a brigadier command source: the unique id
+     * of a player, or the name of any other sender.
+     *
+     * @param source the command source
+     * @return the key, or null if the sender couldn't be determined
+     */
+    public static Object senderKey(Object source) {
+        if (source == null) {
+            return null;
+        }
+        Method method = GET_BUKKIT_SENDER.get(source.getClass());
+        if (method == null) {
+            return null;
+        }
+
+        Object sender;
         try {
-            final Matcher matcher = Pattern.compile("\\(MC: (\\d)\\.(\\d+)\\.?(\\d+?)?( .*)?\\)").matcher(Bukkit.getVersion());
-            if (matcher.find()) {
-                return Integer.parseInt(matcher.toMatchResult().group(2), 10);
-            } else {
-                throw new IllegalArgumentException(String.format("No match found in '%s'", Bukkit.getVersion()));
-            }
-        } catch (final IllegalArgumentException ex) {
-            throw new RuntimeException("Failed to determine Minecraft version", ex);
+            sender = method.invoke(source);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+        if (sender instanceof Player) {
+            return ((Player) sender).getUniqueId();
+        }
+        if (sender instanceof CommandSender) {
+            return ((CommandSender) sender).getName();
         }
+        return null;
     }
 
     private ReflectionUtil() {}
@@ -0,0 +1,203 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces requests to resend players their command tree, and spreads them across ticks.
+ *
+ * <p>Requests made within the same tick are merged, and at most {@code budget} players
+ * are processed each tick. Players whose {@link SendState} hasn't changed since they were
+ * last sent a tree are skipped.</p>
+ */
+final class ResendScheduler implements Listener {
+    private final AbstractCommodore commodore;
+    private final int budget;
+
+    // players waiting to be resent their command tree, in the order they were requested
+    private final Set<UUID> queue = new LinkedHashSet<>();
+    // the task processing the queue, or null if the queue is empty. guarded by queue
+    private BukkitTask task = null;
+
+    // the state each player was in when they were last sent a tree.
+    // only recorded once a resend has been requested, so nothing is paid until then
+    private final Map<UUID, SendState> sent = new ConcurrentHashMap<>();
+    private volatile boolean tracking = false;
+
+    ResendScheduler(AbstractCommodore commodore, int budget) {
+        this.commodore = commodore;
+        this.budget = budget;
+    }
+
+    /**
+     * Requests that the player is resent their command tree.
+     *
+     * @param player the player
+     */
+    void request(Player player) {
+        this.tracking = true;
+        synchronized (this.queue) {
+            this.queue.add(player.getUniqueId());
+            schedule();
+        }
+    }
+
+    /**
+     * Requests that all online players are resent their command tree.
+     */
+    void requestAll() {
+        this.tracking = true;
+        synchronized (this.queue) {
+            for (Player player : this.commodore.plugin.getServer().getOnlinePlayers()) {
+                this.queue.add(player.getUniqueId());
+            }
+            schedule();
+        }
+    }
+
+    /**
+     * Gets if the state of each send should be recorded with {@link #sent(Player, SendState)}.
+     *
+     * @return true if tracking
+     */
+    boolean isTracking() {
+        return this.tracking;
+    }
+
+    /**
+     * Records the state a player was in when they were sent a command tree.
+     *
+     * @param player the player
+     * @param state the state
+     */
+    void sent(Player player, SendState state) {
+        this.sent.put(player.getUniqueId(), state);
+    }
+
+    /**
+     * Forgets the state a player was in when they were last sent a tree, so their
+     * next resend isn't skipped.
+     *
+     * @param uniqueId the player's unique id, or null for all players
+     */
+    void invalidate(UUID uniqueId) {
+        if (uniqueId == null) {
+            this.sent.clear();
+        } else {
+            this.sent.remove(uniqueId);
+        }
+    }
+
+    private void schedule() {
+        if (this.task == null && !this.queue.isEmpty()) {
+            this.task = this.commodore.plugin.getServer().getScheduler().runTaskTimer(this.commodore.plugin, this::tick, 1L, 1L);
+        }
+    }
+
+    private void tick() {
+        List<UUID> batch = new ArrayList<>(Math.min(this.budget, 64));
+        synchronized (this.queue) {
+            for (Iterator<UUID> it = this.queue.iterator(); it.hasNext() && batch.size() < this.budget; ) {
+                batch.add(it.next());
+                it.remove();
+            }
+            if (this.queue.isEmpty() && this.task != null) {
+                this.task.cancel();
+                this.task = null;
+            }
+        }
+
+        CommodoreMetrics metrics = CommodoreMetrics.INSTANCE;
+        for (UUID uniqueId : batch) {
+            Player player = this.commodore.plugin.getServer().getPlayer(uniqueId);
+            if (player == null) {
+                continue;
+            }
+
+            SendState last = this.sent.get(uniqueId);
+            if (last != null && last.equals(this.commodore.getSendState(player))) {
+                if (metrics.isEnabled()) {
+                    metrics.recordResend(false);
+                }
+                continue;
+            }
+
+            player.updateCommands();
+            if (metrics.isEnabled()) {
+                metrics.recordResend(true);
+            }
+        }
+    }
+
+    @EventHandler
+    public void onQuit(PlayerQuitEvent e) {
+        this.sent.remove(e.getPlayer().getUniqueId());
+    }
+
+    /**
+     * The state that determines the command tree a player is sent: the registrations
+     * at the time, and which of their permission tests the player passed.
+     */
+    static final class SendState {
+        // changes whenever the registrations change
+        private final Object version;
+        private final PermissionSignature signature;
+
+        SendState(Object version, PermissionSignature signature) {
+            this.version = version;
+            this.signature = signature;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SendState)) return false;
+            SendState that = (SendState) o;
+            return Objects.equals(this.version, that.version) && this.signature.equals(that.signature);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(this.version) + this.signature.hashCode();
+        }
+    }
+
+}
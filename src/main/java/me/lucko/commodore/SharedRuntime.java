@@ -0,0 +1,141 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.tree.LiteralCommandNode;
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.RegisteredServiceProvider;
+import org.bukkit.plugin.ServicesManager;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A runtime shared between the copies of commodore shaded into different plugins,
+ * so a single listener handles command sends for all of them.
+ *
+ * <p>The first instance to opt in publishes the runtime through the {@link ServicesManager}.
+ * Each plugin relocates commodore, so the copies can't share any commodore types. Instead, the
+ * runtime is found by looking for a service class with a {@code COMMODORE_RUNTIME_VERSION}
+ * field, and contributions are made through the {@link BiConsumer} interface, using only
+ * JDK, Bukkit and brigadier types:</p>
+ *
+ * <ul>
+ *     <li>the first argument identifies the contributor</li>
+ *     <li>the second argument is the contributor's nodes, grouped by permission test,
+ *     which replaces any previous contribution. An empty map removes it.</li>
+ * </ul>
+ *
+ * <p>Any change to the protocol must increment {@link #COMMODORE_RUNTIME_VERSION}. Instances
+ * which find a runtime with a different version fall back to standalone mode.</p>
+ */
+final class SharedRuntime implements BiConsumer<Object, Map<Predicate<? super Player>, List<Supplier<List<LiteralCommandNode<?>>>>>> {
+
+    // read reflectively by other copies of commodore - do not rename
+    public static final int COMMODORE_RUNTIME_VERSION = 1;
+
+    /**
+     * Finds a runtime published by any copy of commodore.
+     *
+     * @param services the services manager
+     * @return the registration of the runtime, or null if there is none
+     */
+    static RegisteredServiceProvider<?> find(ServicesManager services) {
+        for (Class<?> service : services.getKnownServices()) {
+            if (getVersion(service) != -1) {
+                RegisteredServiceProvider<?> registration = services.getRegistration(service);
+                if (registration != null) {
+                    return registration;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets if a runtime found with {@link #find(ServicesManager)} can be contributed to by this copy.
+     *
+     * @param registration the registration of the runtime
+     * @return true if compatible
+     */
+    static boolean isCompatible(RegisteredServiceProvider<?> registration) {
+        return getVersion(registration.getService()) == COMMODORE_RUNTIME_VERSION && registration.getProvider() instanceof BiConsumer;
+    }
+
+    private static int getVersion(Class<?> service) {
+        try {
+            Field field = service.getDeclaredField("COMMODORE_RUNTIME_VERSION");
+            if (!Modifier.isStatic(field.getModifiers()) || field.getType() != int.class) {
+                return -1;
+            }
+            field.setAccessible(true);
+            return field.getInt(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    // called whenever the contributions change
+    private final Runnable listener;
+    private final Map<Object, Map<Predicate<? super Player>, List<Supplier<List<LiteralCommandNode<?>>>>>> contributions = new LinkedHashMap<>();
+
+    SharedRuntime(Runnable listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void accept(Object contributor, Map<Predicate<? super Player>, List<Supplier<List<LiteralCommandNode<?>>>>> nodes) {
+        synchronized (this.contributions) {
+            if (nodes.isEmpty()) {
+                this.contributions.remove(contributor);
+            } else {
+                this.contributions.put(contributor, nodes);
+            }
+        }
+        // called outside of the lock, the listener will call back into getContributions
+        this.listener.run();
+    }
+
+    /**
+     * Gets the current contributions, in the order they were first made.
+     *
+     * @return the contributions
+     */
+    List<Map<Predicate<? super Player>, List<Supplier<List<LiteralCommandNode<?>>>>>> getContributions() {
+        synchronized (this.contributions) {
+            return new ArrayList<>(this.contributions.values());
+        }
+    }
+
+}
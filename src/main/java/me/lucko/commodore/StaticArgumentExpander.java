@@ -0,0 +1,123 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.tree.ArgumentCommandNode;
+import com.mojang.brigadier.tree.CommandNode;
+import com.mojang.brigadier.tree.LiteralCommandNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Expands argument nodes which use a {@link StaticSuggestionProvider} into literal nodes,
+ * so the client can complete them without asking the server.
+ */
+final class StaticArgumentExpander {
+
+    private StaticArgumentExpander() {
+
+    }
+
+    /**
+     * Expands the static argument nodes below the given node.
+     *
+     * <p>Each static argument is replaced in its parent by a literal node for each of its
+     * values. The literals keep the argument's command, requirement and redirect, and share
+     * its children. Values with the same name as another child of the parent are skipped,
+     * leaving the existing child as it is.</p>
+     *
+     * @param root the root of the tree
+     * @return the number of argument nodes which were expanded
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static int expand(CommandNode<?> root) {
+        // the literals replacing each static argument, so shared arguments are only expanded once
+        Map<CommandNode<?>, List<LiteralCommandNode<?>>> expanded = new IdentityHashMap<>();
+        Set<CommandNode<?>> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Deque<CommandNode<?>> stack = new ArrayDeque<>();
+        visited.add(root);
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            CommandNode node = stack.pop();
+
+            // copy, the children are replaced as we go
+            List<CommandNode<?>> children = new ArrayList<>(node.getChildren());
+            for (CommandNode<?> child : children) {
+                if (!isStatic(child)) {
+                    if (visited.add(child)) {
+                        stack.push(child);
+                    }
+                    continue;
+                }
+
+                List<LiteralCommandNode<?>> literals = expanded.computeIfAbsent(child, StaticArgumentExpander::toLiterals);
+                CommandNodeAccessor.removeChild(node, child.getName());
+                for (LiteralCommandNode<?> literal : literals) {
+                    // addChild would merge the literal into a sibling with the same name,
+                    // so values which are already taken in this node are left to the sibling
+                    if (node.getChild(literal.getLiteral()) != null) {
+                        continue;
+                    }
+                    node.addChild(literal);
+                    if (visited.add(literal)) {
+                        stack.push(literal);
+                    }
+                }
+            }
+        }
+        return expanded.size();
+    }
+
+    private static boolean isStatic(CommandNode<?> node) {
+        return node instanceof ArgumentCommandNode && ((ArgumentCommandNode<?, ?>) node).getCustomSuggestions() instanceof StaticSuggestionProvider;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<LiteralCommandNode<?>> toLiterals(CommandNode<?> node) {
+        ArgumentCommandNode argument = (ArgumentCommandNode) node;
+        List<String> values = ((StaticSuggestionProvider<?>) argument.getCustomSuggestions()).getValues();
+
+        List<LiteralCommandNode<?>> literals = new ArrayList<>(values.size());
+        for (String value : values) {
+            LiteralCommandNode literal = new LiteralCommandNode(value, argument.getCommand(), argument.getRequirement(), argument.getRedirect(), argument.getRedirectModifier(), argument.isFork());
+            for (Object child : argument.getChildren()) {
+                literal.addChild((CommandNode) child);
+            }
+            literals.add(literal);
+        }
+        return literals;
+    }
+
+}
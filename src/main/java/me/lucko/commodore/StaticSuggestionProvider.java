@@ -0,0 +1,125 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.suggestion.SuggestionProvider;
+import com.mojang.brigadier.suggestion.Suggestions;
+import com.mojang.brigadier.suggestion.SuggestionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link SuggestionProvider} for arguments which only accept a fixed set of values,
+ * e.g. a game mode or a subcommand flag.
+ *
+ * <p>When an argument node using this provider is registered with commodore, it is
+ * expanded into a literal node for each value, which share the argument's children.
+ * The client then completes the values itself, and doesn't ask the server for
+ * suggestions as the player types. Note that the client will also treat any other
+ * value as invalid input. Values with the same name as a sibling of the argument are
+ * skipped, so the sibling and its children are kept.</p>
+ *
+ * <pre>
+ * RequiredArgumentBuilder.argument("mode", StringArgumentType.word())
+ *         .suggests(StaticSuggestionProvider.of("survival", "creative", "adventure", "spectator"))
+ * </pre>
+ *
+ * <p>Elsewhere, the provider suggests the values which start with the current input.</p>
+ *
+ * @param <S> the command source type
+ */
+public final class StaticSuggestionProvider<S> implements SuggestionProvider<S> {
+
+    /**
+     * Creates a provider for the given values.
+     *
+     * @param values the values
+     * @param <S> the command source type
+     * @return a new provider
+     * @throws IllegalArgumentException if a value is empty or contains a space
+     */
+    public static <S> StaticSuggestionProvider<S> of(String... values) {
+        Objects.requireNonNull(values, "values");
+        return of(Arrays.asList(values));
+    }
+
+    /**
+     * Creates a provider for the given values.
+     *
+     * @param values the values
+     * @param <S> the command source type
+     * @return a new provider
+     * @throws IllegalArgumentException if a value is empty or contains a space
+     */
+    public static <S> StaticSuggestionProvider<S> of(Collection<String> values) {
+        Objects.requireNonNull(values, "values");
+        LinkedHashSet<String> distinct = new LinkedHashSet<>();
+        for (String value : values) {
+            Objects.requireNonNull(value, "value");
+            if (value.isEmpty() || value.indexOf(' ') != -1) {
+                throw new IllegalArgumentException("value must be a single non-empty word: '" + value + "'");
+            }
+            distinct.add(value);
+        }
+        return new StaticSuggestionProvider<>(Collections.unmodifiableList(new ArrayList<>(distinct)));
+    }
+
+    private final List<String> values;
+
+    private StaticSuggestionProvider(List<String> values) {
+        this.values = values;
+    }
+
+    /**
+     * Gets the values suggested by this provider, in the order they were given.
+     *
+     * @return the values
+     */
+    public List<String> getValues() {
+        return this.values;
+    }
+
+    @Override
+    public CompletableFuture<Suggestions> getSuggestions(CommandContext<S> context, SuggestionsBuilder builder) {
+        String remaining = builder.getRemainingLowerCase();
+        for (String value : this.values) {
+            if (value.toLowerCase(Locale.ROOT).startsWith(remaining)) {
+                builder.suggest(value);
+            }
+        }
+        return builder.buildFuture();
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.context.StringRange;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.suggestion.Suggestion;
+import com.mojang.brigadier.suggestion.SuggestionProvider;
+import com.mojang.brigadier.suggestion.Suggestions;
+import com.mojang.brigadier.suggestion.SuggestionsBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Caches the suggestions returned by the server for commodore-registered arguments.
+ *
+ * <p>Suggestions are keyed by command, the input before the argument being completed
+ * (the argument path), the partial argument itself and optionally the player. If enabled,
+ * a cached result for a shorter partial argument is narrowed to answer a longer one, so
+ * the result for "ab" also answers "abc", without asking the server again.</p>
+ */
+final class SuggestionCache {
+
+    // the scope used for all players when suggestions are shared
+    private static final Object GLOBAL_SCOPE = new Object();
+
+    /**
+     * Creates a suggestion cache from the given options.
+     *
+     * @param options the options
+     * @return the cache, or null if suggestions shouldn't be cached
+     */
+    static SuggestionCache of(CommodoreOptions options) {
+        if (options.getSuggestionCacheScope() == null) {
+            return null;
+        }
+        return new SuggestionCache(options.getSuggestionCacheMaximumSize(), options.getSuggestionCacheExpireAfterNanos(),
+                options.getSuggestionCacheScope() == CommodoreOptions.SuggestionScope.PLAYER, options.isSuggestionCacheNarrowing());
+    }
+
+    private final long expireAfterNanos;
+    private final boolean perPlayer;
+    // if results for a shorter partial argument answer longer ones
+    private final boolean narrow;
+
+    // cached suggestions, in access order
+    private final LinkedHashMap<Key, CachedSuggestions> entries;
+
+    private SuggestionCache(int maximumSize, long expireAfterNanos, boolean perPlayer, boolean narrow) {
+        this.expireAfterNanos = expireAfterNanos;
+        this.perPlayer = perPlayer;
+        this.narrow = narrow;
+        this.entries = new LinkedHashMap<Key, CachedSuggestions>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedSuggestions> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Returns a suggestion provider which caches the suggestions of the given provider.
+     *
+     * @param command the name of the command the provider is for
+     * @param provider the provider
+     * @return a caching provider
+     */
+    @SuppressWarnings("unchecked")
+    SuggestionProvider<?> wrap(String command, SuggestionProvider<?> provider) {
+        SuggestionProvider<Object> delegate = (SuggestionProvider<Object>) provider;
+        return (SuggestionProvider<Object>) (context, builder) -> getSuggestions(command, delegate, context, builder);
+    }
+
+    private CompletableFuture<Suggestions> getSuggestions(String command, SuggestionProvider<Object> delegate, CommandContext<Object> context, SuggestionsBuilder builder) throws CommandSyntaxException {
+        Object scope = this.perPlayer ? ReflectionUtil.senderKey(context.getSource()) : GLOBAL_SCOPE;
+        if (scope == null) {
+            return delegate.getSuggestions(context, builder);
+        }
+
+        String input = builder.getInput();
+        String path = input.substring(0, builder.getStart());
+        String remaining = builder.getRemaining();
+        long now = System.nanoTime();
+
+        Suggestions cached = lookup(command, scope, path, remaining, input, now);
+        CommodoreMetrics metrics = CommodoreMetrics.INSTANCE;
+        if (cached != null) {
+            if (metrics.isEnabled()) {
+                metrics.recordSuggestionCache(true);
+            }
+            return CompletableFuture.completedFuture(cached);
+        }
+        if (metrics.isEnabled()) {
+            metrics.recordSuggestionCache(false);
+        }
+
+        Key key = new Key(command, scope, path, remaining);
+        return delegate.getSuggestions(context, builder).thenApply(suggestions -> {
+            synchronized (this.entries) {
+                this.entries.put(key, new CachedSuggestions(suggestions, now + this.expireAfterNanos));
+            }
+            return suggestions;
+        });
+    }
+
+    private Suggestions lookup(String command, Object scope, String path, String remaining, String input, long now) {
+        synchronized (this.entries) {
+            // try the exact input, then (if narrowing) progressively shorter prefixes of the partial argument
+            int shortest = this.narrow ? 0 : remaining.length();
+            for (int end = remaining.length(); end >= shortest; end--) {
+                if (end != remaining.length() && remaining.indexOf(' ', end) != -1) {
+                    // a new word has been started since, the cached suggestions don't apply
+                    return null;
+                }
+
+                Key key = new Key(command, scope, path, remaining.substring(0, end));
+                CachedSuggestions entry = this.entries.get(key);
+                if (entry == null) {
+                    continue;
+                }
+                if (now - entry.expiry >= 0) {
+                    this.entries.remove(key);
+                    continue;
+                }
+                return end == remaining.length() ? entry.suggestions : narrow(entry.suggestions, input);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Narrows suggestions computed for a shorter input to those which still match the given input.
+     *
+     * @param suggestions the suggestions
+     * @param input the input
+     * @return the narrowed suggestions, or null if they can't be narrowed
+     */
+    private static Suggestions narrow(Suggestions suggestions, String input) {
+        int start = suggestions.getRange().getStart();
+        if (start > input.length()) {
+            return null;
+        }
+
+        String current = input.substring(start).toLowerCase(Locale.ROOT);
+        StringRange range = StringRange.between(start, input.length());
+        List<Suggestion> narrowed = new ArrayList<>();
+        for (Suggestion suggestion : suggestions.getList()) {
+            if (suggestion.getRange().getStart() != start) {
+                return null;
+            }
+            if (suggestion.getText().toLowerCase(Locale.ROOT).startsWith(current)) {
+                narrowed.add(new Suggestion(range, suggestion.getText(), suggestion.getTooltip()));
+            }
+        }
+        return new Suggestions(range, narrowed);
+    }
+
+    private static final class Key {
+        private final String command;
+        private final Object scope;
+        private final String path;
+        private final String remaining;
+        private final int hashCode;
+
+        Key(String command, Object scope, String path, String remaining) {
+            this.command = command;
+            this.scope = scope;
+            this.path = path;
+            this.remaining = remaining;
+            this.hashCode = Objects.hash(command, scope, path, remaining);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return this.hashCode == that.hashCode &&
+                    this.command.equals(that.command) &&
+                    this.scope.equals(that.scope) &&
+                    this.path.equals(that.path) &&
+                    this.remaining.equals(that.remaining);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+    }
+
+    private static final class CachedSuggestions {
+        private final Suggestions suggestions;
+        private final long expiry;
+
+        private CachedSuggestions(Suggestions suggestions, long expiry) {
+            this.suggestions = suggestions;
+            this.expiry = expiry;
+        }
+    }
+
+}
@@ -0,0 +1,427 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.arguments.ArgumentType;
+import com.mojang.brigadier.arguments.BoolArgumentType;
+import com.mojang.brigadier.arguments.DoubleArgumentType;
+import com.mojang.brigadier.arguments.FloatArgumentType;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.LongArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.tree.ArgumentCommandNode;
+import com.mojang.brigadier.tree.CommandNode;
+import com.mojang.brigadier.tree.LiteralCommandNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Limits the size of the nodes sent to a player, by collapsing subtrees into
+ * a single greedy string argument which asks the server for suggestions.
+ *
+ * <p>Sizes are estimates of the encoded size of each node in the clientbound
+ * commands packet, which are close enough to compare trees against each other.</p>
+ */
+final class TreeBudget {
+
+    // the name of the argument which replaces collapsed subtrees
+    private static final String COLLAPSED_ARGUMENT_NAME = "args";
+    // the identifier sent for the ASK_SERVER suggestion provider
+    private static final String ASK_SERVER = "minecraft:ask_server";
+    // the height given to nodes which are part of a cycle, low enough not to overflow when added to a depth
+    private static final int UNBOUNDED_HEIGHT = Integer.MAX_VALUE / 2;
+
+    /**
+     * Creates a budget from the given options.
+     *
+     * @param options the options
+     * @return the budget, or null if the options don't set one
+     */
+    static TreeBudget of(CommodoreOptions options) {
+        if (options.getMaxTreeDepth() == 0 && options.getMaxTreeBytes() == 0) {
+            return null;
+        }
+        return new TreeBudget(options.getMaxTreeDepth(), options.getMaxTreeBytes());
+    }
+
+    // the maximum depth of a command, where the command literal itself has depth 1, or 0 for unlimited
+    private final int maxDepth;
+    // the maximum estimated size of all nodes sent to a player, or 0 for unlimited
+    private final int maxBytes;
+
+    private TreeBudget(int maxDepth, int maxBytes) {
+        this.maxDepth = maxDepth;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Applies the budget to the nodes sent to a player.
+     *
+     * <p>The given nodes are never modified. Collapsed commands are replaced by copies.</p>
+     *
+     * @param nodes the nodes
+     * @return the result
+     */
+    Result apply(List<LiteralCommandNode<?>> nodes) {
+        int[] sizes = new int[nodes.size()];
+        int[] counts = new int[nodes.size()];
+        int total = 0;
+        int totalCount = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            long estimate = estimate(nodes.get(i));
+            sizes[i] = (int) estimate;
+            counts[i] = (int) (estimate >>> 32);
+            total += sizes[i];
+            totalCount += counts[i];
+        }
+
+        List<LiteralCommandNode<?>> result = new ArrayList<>(nodes);
+        Map<CommandNode<?>, CommandNode<?>> replaced = new IdentityHashMap<>();
+        boolean[] collapsed = new boolean[nodes.size()];
+        // shared between all commands, which may share subtrees
+        Map<CommandNode<?>, Integer> heights = new IdentityHashMap<>();
+
+        // first collapse anything deeper than the maximum depth
+        if (this.maxDepth != 0) {
+            Pruner pruner = new Pruner(this.maxDepth, heights);
+            for (int i = 0; i < result.size(); i++) {
+                LiteralCommandNode<?> node = result.get(i);
+                LiteralCommandNode<?> pruned = (LiteralCommandNode<?>) pruner.prune(node);
+                if (pruned != node) {
+                    replace(result, i, pruned, replaced, sizes, counts);
+                }
+            }
+        }
+
+        // then collapse the largest commands entirely, until within the budget
+        if (this.maxBytes != 0) {
+            Pruner pruner = new Pruner(1, heights);
+            int size = sum(sizes);
+            while (size > this.maxBytes) {
+                int largest = -1;
+                for (int i = 0; i < result.size(); i++) {
+                    if (!collapsed[i] && result.get(i).getRedirect() == null && !result.get(i).getChildren().isEmpty()
+                            && (largest == -1 || sizes[i] > sizes[largest])) {
+                        largest = i;
+                    }
+                }
+                if (largest == -1) {
+                    break;
+                }
+
+                LiteralCommandNode<?> node = result.get(largest);
+                LiteralCommandNode<?> pruned = (LiteralCommandNode<?>) pruner.prune(node);
+                int before = sizes[largest];
+                replace(result, largest, pruned, replaced, sizes, counts);
+                collapsed[largest] = true;
+                size -= before - sizes[largest];
+            }
+        }
+
+        if (replaced.isEmpty()) {
+            return new Result(nodes, 0, 0);
+        }
+
+        // point aliases at the collapsed copies, rather than the original tree
+        for (int i = 0; i < result.size(); i++) {
+            LiteralCommandNode<?> node = result.get(i);
+            CommandNode<?> target = node.getRedirect() == null ? null : replaced.get(node.getRedirect());
+            if (target != null) {
+                result.set(i, redirect(node, target));
+            }
+        }
+
+        return new Result(Collections.unmodifiableList(result), total - sum(sizes), totalCount - sum(counts));
+    }
+
+    private static void replace(List<LiteralCommandNode<?>> nodes, int index, LiteralCommandNode<?> replacement, Map<CommandNode<?>, CommandNode<?>> replaced, int[] sizes, int[] counts) {
+        LiteralCommandNode<?> original = nodes.set(index, replacement);
+        // map the original node (not an earlier copy of it) to the latest copy
+        CommandNode<?> root = original;
+        for (Map.Entry<CommandNode<?>, CommandNode<?>> entry : replaced.entrySet()) {
+            if (entry.getValue() == original) {
+                root = entry.getKey();
+                break;
+            }
+        }
+        replaced.put(root, replacement);
+
+        long estimate = estimate(replacement);
+        sizes[index] = (int) estimate;
+        counts[index] = (int) (estimate >>> 32);
+    }
+
+    /**
+     * Copies nodes, collapsing any subtrees which go deeper than a maximum depth.
+     *
+     * <p>Copies are shared, so a node reached by several paths at the same depth is
+     * only copied once, and the tree stays as compact as the original.</p>
+     */
+    private static final class Pruner {
+        private final int maxDepth;
+        private final Map<CommandNode<?>, Integer> heights;
+        // the copy of each node pruned at each depth, indexed by depth - 1
+        private final List<Map<CommandNode<?>, CommandNode<?>>> copies;
+        // the argument which replaces collapsed subtrees, created on first use
+        private CommandNode<?> collapsedArgument;
+
+        Pruner(int maxDepth, Map<CommandNode<?>, Integer> heights) {
+            this.maxDepth = maxDepth;
+            this.heights = heights;
+            this.copies = new ArrayList<>(maxDepth);
+            for (int i = 0; i < maxDepth; i++) {
+                this.copies.add(new IdentityHashMap<>());
+            }
+        }
+
+        /**
+         * Prunes the tree of the given command node.
+         *
+         * @param root the command node
+         * @return the node itself if it fits, otherwise a copy
+         */
+        CommandNode<?> prune(CommandNode<?> root) {
+            computeHeights(root, this.heights);
+            return prune(root, 1);
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private CommandNode<?> prune(CommandNode<?> node, int depth) {
+            if (depth + this.heights.get(node) - 1 <= this.maxDepth) {
+                return node;
+            }
+
+            Map<CommandNode<?>, CommandNode<?>> copies = this.copies.get(depth - 1);
+            CommandNode existing = copies.get(node);
+            if (existing != null) {
+                return existing;
+            }
+
+            CommandNode copy = copy(node);
+            copies.put(node, copy);
+            if (depth >= this.maxDepth) {
+                // any further input is accepted by the client, and suggestions come from the server
+                copy.addChild(getCollapsedArgument());
+            } else {
+                // depth is bounded by maxDepth, so this terminates even if the tree has cycles
+                for (CommandNode<?> child : node.getChildren()) {
+                    copy.addChild(prune(child, depth + 1));
+                }
+            }
+            return copy;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private CommandNode<?> getCollapsedArgument() {
+            if (this.collapsedArgument == null) {
+                this.collapsedArgument = new ArgumentCommandNode(COLLAPSED_ARGUMENT_NAME, StringArgumentType.greedyString(),
+                        AbstractCommodore.DUMMY_COMMAND, source -> true, null, null, false, AbstractCommodore.DUMMY_SUGGESTION_PROVIDER);
+            }
+            return this.collapsedArgument;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static CommandNode<?> copy(CommandNode node) {
+        if (node instanceof LiteralCommandNode) {
+            return new LiteralCommandNode(node.getName(), node.getCommand(), node.getRequirement(), node.getRedirect(), node.getRedirectModifier(), node.isFork());
+        }
+        ArgumentCommandNode argument = (ArgumentCommandNode) node;
+        return new ArgumentCommandNode(argument.getName(), argument.getType(), argument.getCommand(), argument.getRequirement(),
+                argument.getRedirect(), argument.getRedirectModifier(), argument.isFork(), argument.getCustomSuggestions());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static LiteralCommandNode<?> redirect(LiteralCommandNode node, CommandNode target) {
+        LiteralCommandNode copy = new LiteralCommandNode(node.getLiteral(), node.getCommand(), node.getRequirement(), target, node.getRedirectModifier(), node.isFork());
+        for (Object child : node.getChildren()) {
+            copy.addChild((CommandNode) child);
+        }
+        return copy;
+    }
+
+    /**
+     * Computes the height of each node in the tree which isn't already known, where a node
+     * without children has height 1, and nodes which are part of a cycle have an unbounded height.
+     *
+     * @param root the root of the tree
+     * @param heights the known heights, updated with the result
+     */
+    private static void computeHeights(CommandNode<?> root, Map<CommandNode<?>, Integer> heights) {
+        if (heights.containsKey(root)) {
+            return;
+        }
+
+        // children are pushed one at a time, so the stack is always the path from the root
+        Deque<CommandNode<?>> stack = new ArrayDeque<>();
+        Set<CommandNode<?>> onStack = Collections.newSetFromMap(new IdentityHashMap<>());
+        stack.push(root);
+        onStack.add(root);
+        while (!stack.isEmpty()) {
+            CommandNode<?> node = stack.peek();
+            int height = 1;
+            CommandNode<?> next = null;
+            for (CommandNode<?> child : node.getChildren()) {
+                Integer childHeight = heights.get(child);
+                if (childHeight != null) {
+                    height = Math.max(height, Math.min(childHeight + 1, UNBOUNDED_HEIGHT));
+                } else if (onStack.contains(child)) {
+                    // a cycle back to an ancestor
+                    height = UNBOUNDED_HEIGHT;
+                } else {
+                    next = child;
+                    break;
+                }
+            }
+
+            if (next != null) {
+                stack.push(next);
+                onStack.add(next);
+            } else {
+                stack.pop();
+                onStack.remove(node);
+                heights.put(node, height);
+            }
+        }
+    }
+
+    /**
+     * Estimates the encoded size of a tree, and counts its nodes.
+     *
+     * @param root the root of the tree
+     * @return the node count in the upper 32 bits, and the size in the lower 32 bits
+     */
+    static long estimate(CommandNode<?> root) {
+        Set<CommandNode<?>> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<CommandNode<?>> stack = new ArrayDeque<>();
+        seen.add(root);
+        stack.push(root);
+
+        long size = 0;
+        long count = 0;
+        while (!stack.isEmpty()) {
+            CommandNode<?> node = stack.pop();
+            size += estimateNode(node);
+            count++;
+            for (CommandNode<?> child : node.getChildren()) {
+                if (seen.add(child)) {
+                    stack.push(child);
+                }
+            }
+        }
+        return (count << 32) | Math.min(size, Integer.MAX_VALUE);
+    }
+
+    private static int estimateNode(CommandNode<?> node) {
+        int children = node.getChildren().size();
+        // flags, child count and child indexes
+        int size = 1 + varIntSize(children) + children * 2;
+        if (node.getRedirect() != null) {
+            size += 2;
+        }
+        size += stringSize(node.getName());
+
+        if (node instanceof ArgumentCommandNode) {
+            ArgumentCommandNode<?, ?> argument = (ArgumentCommandNode<?, ?>) node;
+            // parser id and properties
+            size += 1 + estimateProperties(argument.getType());
+            if (argument.getCustomSuggestions() != null) {
+                size += stringSize(ASK_SERVER);
+            }
+        }
+        return size;
+    }
+
+    private static int estimateProperties(ArgumentType<?> type) {
+        if (type instanceof BoolArgumentType) {
+            return 0;
+        } else if (type instanceof StringArgumentType) {
+            return 1;
+        } else if (type instanceof IntegerArgumentType || type instanceof FloatArgumentType) {
+            return 1 + 8;
+        } else if (type instanceof LongArgumentType || type instanceof DoubleArgumentType) {
+            return 1 + 16;
+        } else {
+            // minecraft argument types - most have no or very small properties
+            return 2;
+        }
+    }
+
+    private static int stringSize(String string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return varIntSize(length) + length;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int sum(int[] values) {
+        int sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    /**
+     * The nodes to send, and how much was saved by collapsing them.
+     */
+    static final class Result {
+        final List<LiteralCommandNode<?>> nodes;
+        final int bytesSaved;
+        final int nodesPruned;
+
+        Result(List<LiteralCommandNode<?>> nodes, int bytesSaved, int nodesPruned) {
+            this.nodes = nodes;
+            this.bytesSaved = bytesSaved;
+            this.nodesPruned = nodesPruned;
+        }
+    }
+
+}
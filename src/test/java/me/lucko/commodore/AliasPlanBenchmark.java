@@ -0,0 +1,122 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import me.lucko.commodore.harness.StandInPlugin;
+import me.lucko.commodore.harness.StandInServer;
+
+import org.bukkit.command.PluginCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks looking up the {@link AliasPlan} of a command, and using it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AliasPlanBenchmark {
+
+    @Param({"0", "3", "10"})
+    public int aliases;
+
+    private PluginCommand command;
+    // a command whose aliases change before every lookup, so its plan is always recomputed
+    private PluginCommand changing;
+    private List<String> aliasesA;
+    private List<String> aliasesB;
+    private boolean flip = false;
+
+    // names to look up in the plan, half of which are aliases
+    private String[] probes;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        StandInPlugin plugin = new StandInPlugin(StandInServer.get(), "AliasBenchmark");
+        this.aliasesA = new ArrayList<>();
+        this.aliasesB = new ArrayList<>();
+        for (int i = 0; i < this.aliases; i++) {
+            this.aliasesA.add("bencha" + i);
+            this.aliasesB.add("benchb" + i);
+        }
+        this.command = plugin.createCommand("bench", this.aliasesA, null);
+        this.changing = plugin.createCommand("changing", this.aliasesA, null);
+
+        List<String> all = AliasPlan.of(this.command).all();
+        this.probes = new String[all.size() * 2];
+        for (int i = 0; i < all.size(); i++) {
+            this.probes[i * 2] = all.get(i);
+            this.probes[i * 2 + 1] = "missing" + i;
+        }
+    }
+
+    @Benchmark
+    public AliasPlan of() {
+        return AliasPlan.of(this.command);
+    }
+
+    @Benchmark
+    public AliasPlan ofChanged() {
+        this.flip = !this.flip;
+        this.changing.setAliases(this.flip ? this.aliasesB : this.aliasesA);
+        return AliasPlan.of(this.changing);
+    }
+
+    /**
+     * Gets every alias of the command, as previously returned by {@code AbstractCommodore#getAliases}.
+     *
+     * @return the aliases
+     */
+    @Benchmark
+    public List<String> getAliases() {
+        return AliasPlan.of(this.command).all();
+    }
+
+    @Benchmark
+    public boolean contains() {
+        String probe = this.probes[this.next];
+        this.next = (this.next + 1) % this.probes.length;
+        return AliasPlan.of(this.command).contains(probe);
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.suggestion.SuggestionProvider;
+import com.mojang.brigadier.tree.CommandNode;
+
+import me.lucko.commodore.harness.SyntheticTrees;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerCommandSendEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the {@link PlayerCommandSendEvent} listener of {@link ReflectionCommodore}
+ * removing the commands a player can't use.
+ *
+ * <p>The cost of copying the command names being sent is measured by {@link #baseline()}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandSendBenchmark {
+
+    @Param({"2", "4"})
+    public int width;
+
+    @Param({"2", "3"})
+    public int depth;
+
+    @Param({"0", "3"})
+    public int aliases;
+
+    private Fixture fixture;
+    private ReflectionCommodore.CommandDataSendListener listener;
+    // the command names the server sends every player, before the listener is called
+    private List<String> commands;
+
+    @Setup
+    public void setUp() {
+        this.fixture = new Fixture("ReflectionBenchmark", this.aliases);
+
+        // a freshly loaded dispatcher, with a bukkit node for every alias
+        CommandDispatcher<Object> dispatcher = new CommandDispatcher<>();
+        for (PluginCommand command : this.fixture.commands) {
+            for (String alias : AliasPlan.of(command).all()) {
+                dispatcher.getRoot().addChild(LiteralArgumentBuilder.<Object>literal(alias).build());
+            }
+        }
+        CraftServerAccess access = new CraftServerAccess() {
+            @Override
+            public CommandDispatcher<?> getDispatcher() {
+                return dispatcher;
+            }
+
+            @Override
+            public SuggestionProvider<?> createCommandWrapper(Command command) {
+                return (context, builder) -> builder.buildFuture();
+            }
+        };
+
+        ReflectionCommodore commodore = this.fixture.server.callOnMainThread(() -> {
+            ReflectionCommodore instance = new ReflectionCommodore(this.fixture.plugin.asPlugin(), CommodoreOptions.defaults(), access);
+            for (PluginCommand command : this.fixture.commands) {
+                instance.register(command, SyntheticTrees.build(command.getName(), this.width, this.depth));
+            }
+            return instance;
+        });
+        this.listener = commodore.getCommandDataSendListener();
+
+        // like the server, which thinks commodore's nodes are vanilla commands
+        this.commands = new ArrayList<>();
+        for (CommandNode<Object> node : dispatcher.getRoot().getChildren()) {
+            this.commands.add(node.getName());
+            this.commands.add("minecraft:" + node.getName());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.fixture.tearDown();
+    }
+
+    @Benchmark
+    public Collection<String> baseline() {
+        this.fixture.nextPlayer();
+        return new LinkedHashSet<>(this.commands);
+    }
+
+    @Benchmark
+    public Collection<String> filter() {
+        Player player = this.fixture.players[this.fixture.nextPlayer()].asPlayer();
+        Collection<String> commands = new LinkedHashSet<>(this.commands);
+        this.listener.filter(player, commands);
+        return commands;
+    }
+
+    @Benchmark
+    public Collection<String> onCommandSend() {
+        Player player = this.fixture.players[this.fixture.nextPlayer()].asPlayer();
+        Collection<String> commands = new LinkedHashSet<>(this.commands);
+        this.listener.onCommandSend(new PlayerCommandSendEvent(player, commands));
+        return commands;
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.tree.CommandNode;
+import com.mojang.brigadier.tree.RootCommandNode;
+
+import me.lucko.commodore.harness.StandInPlayer;
+import me.lucko.commodore.harness.StandInPlugin;
+import me.lucko.commodore.harness.StandInServer;
+
+import org.bukkit.command.PluginCommand;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A plugin with a fixed set of commands, and players with every combination of
+ * the permissions the commands require.
+ */
+final class Fixture {
+
+    // the number of registered commands
+    static final int COMMANDS = 50;
+    // the number of distinct permissions, command i requires tier (i % (TIERS + 1)), or none for the last tier
+    static final int TIERS = 5;
+
+    // the commands added by the server itself
+    private static final String[] VANILLA = {"help", "list", "me", "msg", "say", "tell"};
+
+    final StandInServer server = StandInServer.get();
+    final StandInPlugin plugin;
+    final List<PluginCommand> commands = new ArrayList<>(COMMANDS);
+    // one player for each subset of the tiers
+    final StandInPlayer[] players = new StandInPlayer[1 << TIERS];
+
+    // the nodes the server would send each player before commodore, indexed like players
+    private final List<List<CommandNode<Object>>> sentNodes = new ArrayList<>();
+    private int next = 0;
+
+    Fixture(String pluginName, int aliases) {
+        this.plugin = new StandInPlugin(this.server, pluginName);
+        for (int i = 0; i < COMMANDS; i++) {
+            List<String> aliasList = new ArrayList<>(aliases);
+            for (int j = 0; j < aliases; j++) {
+                aliasList.add("cmd" + i + "a" + j);
+            }
+            int tier = i % (TIERS + 1);
+            this.commands.add(this.plugin.createCommand("cmd" + i, aliasList, tier == TIERS ? null : "bench.tier." + tier));
+        }
+
+        for (int mask = 0; mask < this.players.length; mask++) {
+            Set<String> permissions = new HashSet<>();
+            for (int tier = 0; tier < TIERS; tier++) {
+                if ((mask & (1 << tier)) != 0) {
+                    permissions.add("bench.tier." + tier);
+                }
+            }
+            StandInPlayer player = new StandInPlayer(this.server, new UUID(0, mask), "player" + mask, permissions);
+            this.players[mask] = player;
+            this.server.join(player);
+
+            // like the server, only include the nodes for commands the player can use
+            List<CommandNode<Object>> nodes = new ArrayList<>();
+            for (String name : VANILLA) {
+                nodes.add(LiteralArgumentBuilder.<Object>literal(name).build());
+            }
+            for (PluginCommand command : this.commands) {
+                if (command.testPermissionSilent(player.asPlayer())) {
+                    for (String alias : AliasPlan.of(command).all()) {
+                        nodes.add(LiteralArgumentBuilder.<Object>literal(alias).build());
+                    }
+                }
+            }
+            this.sentNodes.add(nodes);
+        }
+    }
+
+    /**
+     * Gets the index of the next player to send a tree to, cycling through every player.
+     *
+     * @return the index of the player
+     */
+    int nextPlayer() {
+        int index = this.next;
+        this.next = (index + 1) & (this.players.length - 1);
+        return index;
+    }
+
+    /**
+     * Creates the root node the server would send a player, before commodore modifies it.
+     *
+     * <p>The same node instances are added to each root, only the root itself is new.</p>
+     *
+     * @param player the index of the player
+     * @return the root node
+     */
+    RootCommandNode<Object> newRoot(int player) {
+        RootCommandNode<Object> root = new RootCommandNode<>();
+        for (CommandNode<Object> node : this.sentNodes.get(player)) {
+            root.addChild(node);
+        }
+        return root;
+    }
+
+    /**
+     * Disables the plugin, unregistering everything it registered.
+     */
+    void tearDown() {
+        this.server.pluginManager().disablePlugin(this.plugin.asPlugin());
+        this.server.clearPlayers();
+    }
+
+}
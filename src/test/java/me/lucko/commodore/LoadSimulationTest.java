@@ -0,0 +1,280 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import me.lucko.commodore.harness.StandInPlayer;
+import me.lucko.commodore.harness.StandInServer;
+import me.lucko.commodore.harness.SyntheticTrees;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Simulates many players being sent their command trees at once, against each commodore
+ * implementation, using a {@link StandInServer}.
+ *
+ * <p>Each backend goes through the same phases:</p>
+ * <ul>
+ *     <li>join waves, where every player is sent their tree at once</li>
+ *     <li>permission storms, where a fraction of the players have their permissions changed
+ *     and a resend requested, while others are sent their tree directly, commands are
+ *     registered again with new trees and (for the reflection implementation) the server reloads</li>
+ * </ul>
+ *
+ * <p>Every tree sent is checked against the permissions the player had when it was sent.
+ * Once a storm has settled, every player's last tree is checked against their current
+ * permissions. The throughput and latency of the send event handlers are reported for
+ * each phase.</p>
+ *
+ * <p>The defaults are sized to run as part of the build. Larger simulations can be run
+ * by setting {@code commodore.simulation.<option>} system properties, see {@link Options}.</p>
+ */
+class LoadSimulationTest {
+
+    private final StandInServer server = StandInServer.get();
+    private final Options options = Options.fromSystemProperties();
+    private ExecutorService workers;
+
+    private SimulatedBackend backend;
+    private Scenario scenario;
+
+    @BeforeEach
+    void setUp() {
+        this.server.setTickNanos(TimeUnit.MILLISECONDS.toNanos(this.options.tickMillis));
+        this.workers = Executors.newFixedThreadPool(this.options.threads, new WorkerThreadFactory());
+
+        CommodoreMetrics metrics = CommodoreProvider.getMetrics();
+        metrics.setEnabled(true);
+        metrics.reset();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.workers.shutdownNow();
+        this.server.clearPlayers();
+        CommodoreProvider.getMetrics().setEnabled(false);
+    }
+
+    @Test
+    void paper() throws Exception {
+        simulate(new PaperBackend(this.server, this.options, this.workers, false));
+    }
+
+    @Test
+    void paperSharedRuntime() throws Exception {
+        simulate(new PaperBackend(this.server, this.options, this.workers, true));
+    }
+
+    @Test
+    void reflection() throws Exception {
+        simulate(new ReflectionBackend(this.server, this.options, this.workers));
+    }
+
+    private void simulate(SimulatedBackend backend) throws Exception {
+        this.backend = backend;
+        this.scenario = new Scenario(this.server, this.options, backend.getPlugins());
+
+        log("%d players, %d commands (%d nodes each), %d threads", this.options.players, this.options.commands,
+                SyntheticTrees.size(this.options.width, this.options.depth), this.options.threads);
+
+        this.server.setCommandSender(this.backend::updateCommands);
+        this.backend.setUp(this.scenario);
+        this.backend.nextPhase();
+
+        for (int i = 1; i <= this.options.waves; i++) {
+            long start = System.nanoTime();
+            List<Future<?>> tasks = new ArrayList<>();
+            for (StandInPlayer player : this.scenario.getPlayers()) {
+                tasks.add(this.workers.submit(() -> this.backend.send(player)));
+            }
+            await(tasks);
+            log("join wave %d: %s", i, this.backend.nextPhase().summarize(System.nanoTime() - start));
+        }
+
+        for (int i = 1; i <= this.options.storms; i++) {
+            long start = System.nanoTime();
+            storm();
+            long elapsed = System.nanoTime() - start;
+            awaitSettled();
+            log("permission storm %d: %s", i, this.backend.nextPhase().summarize(elapsed));
+
+            // every player should now have the tree for their current permissions
+            for (StandInPlayer player : this.scenario.getPlayers()) {
+                if (player.getLastSent() == null) {
+                    this.scenario.fail("settled: " + player + " was never sent a tree");
+                    continue;
+                }
+                this.scenario.check("settled", player, this.scenario.expected(player.getPermissions()), player.getLastSent());
+            }
+        }
+
+        this.backend.verify();
+        this.backend.tearDown();
+
+        for (Throwable e : this.server.drainErrors()) {
+            this.scenario.fail("exception: " + e);
+            e.printStackTrace();
+        }
+        log("metrics: %s", CommodoreProvider.getMetrics().snapshot());
+        log("%d checks, %d failures", this.scenario.getChecks(), this.scenario.getFailureCount());
+        assertTrue(this.scenario.getFailureCount() == 0, () -> String.join("\n", this.scenario.getFailures()));
+    }
+
+    /**
+     * Changes the permissions of a fraction of the players and requests resends, while
+     * sending other players their tree and registering commands again.
+     */
+    private void storm() throws Exception {
+        AtomicInteger reregistered = new AtomicInteger();
+        Future<?> churn = this.workers.submit(() -> {
+            List<Scenario.CommandSpec> commands = this.scenario.getCommands();
+            while (!Thread.currentThread().isInterrupted()) {
+                Scenario.CommandSpec spec = commands.get(ThreadLocalRandom.current().nextInt(commands.size()));
+                this.server.runOnMainThread(() -> this.backend.reregister(spec));
+                reregistered.incrementAndGet();
+                try {
+                    Thread.sleep(Math.max(1, this.options.tickMillis));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        List<Future<?>> tasks = new ArrayList<>();
+        List<StandInPlayer> players = this.scenario.getPlayers();
+        for (int i = 0; i < players.size(); i++) {
+            StandInPlayer player = players.get(i);
+            if (ThreadLocalRandom.current().nextDouble() < this.options.stormFraction) {
+                tasks.add(this.workers.submit(() -> {
+                    synchronized (player) {
+                        player.setPermissions(this.scenario.randomPermissions(player.getPermissions()));
+                    }
+                    this.backend.requestResend(player);
+                }));
+            } else if (ThreadLocalRandom.current().nextInt(4) == 0) {
+                tasks.add(this.workers.submit(() -> this.backend.send(player)));
+            }
+            if (i == players.size() / 2) {
+                this.backend.reload();
+            }
+        }
+        await(tasks);
+
+        churn.cancel(true);
+        log("  %d commands registered again", reregistered.get());
+    }
+
+    /**
+     * Waits until no trees have been sent for long enough that any pending resends have been processed.
+     */
+    private void awaitSettled() throws InterruptedException {
+        long tickNanos = this.server.getTickNanos();
+        // the resend scheduler processes a limited number of players each tick
+        long idleNanos = (20 + this.options.players / 50) * tickNanos;
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (true) {
+            TimeUnit.NANOSECONDS.sleep(tickNanos);
+            this.server.runOnMainThread(() -> {});
+            if (this.backend.isIdle(idleNanos)) {
+                return;
+            }
+            if (System.nanoTime() - deadline > 0) {
+                this.scenario.fail("settle: sends were still in progress after a minute");
+                return;
+            }
+        }
+    }
+
+    private static void await(List<Future<?>> tasks) throws Exception {
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+    }
+
+    private void log(String format, Object... args) {
+        System.out.println("[" + this.backend.getName() + "] " + String.format(format, args));
+    }
+
+    /**
+     * The options of the simulation, each of which can be set by a
+     * {@code commodore.simulation.<name>} system property.
+     */
+    static final class Options {
+        // the number of players
+        final int players = intProperty("players", 200);
+        // the number of threads sending trees, e.g. paper's network threads
+        final int threads = intProperty("threads", Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        // the number of registered commands, their aliases and the shape of their trees
+        final int commands = intProperty("commands", 40);
+        final int aliases = intProperty("aliases", 2);
+        final int width = intProperty("width", 3);
+        final int depth = intProperty("depth", 3);
+        // every nth command is registered lazily, or 0 for none
+        final int lazyEvery = intProperty("lazyEvery", 5);
+        // the number of distinct permissions, and of permission groups
+        final int tiers = intProperty("tiers", 6);
+        final int groups = intProperty("groups", 8);
+        // the number of join waves and permission storms
+        final int waves = intProperty("waves", 2);
+        final int storms = intProperty("storms", 2);
+        // the fraction of players whose permissions change in each storm
+        final double stormFraction = Double.parseDouble(System.getProperty("commodore.simulation.stormFraction", "0.5"));
+        final long tickMillis = intProperty("tickMillis", 5);
+
+        static Options fromSystemProperties() {
+            return new Options();
+        }
+
+        private static int intProperty(String name, int defaultValue) {
+            return Integer.getInteger("commodore.simulation." + name, defaultValue);
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Simulation worker " + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
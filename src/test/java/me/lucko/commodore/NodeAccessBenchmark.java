@@ -0,0 +1,139 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.Command;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.tree.CommandNode;
+import com.mojang.brigadier.tree.LiteralCommandNode;
+import com.mojang.brigadier.tree.RootCommandNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares accessing brigadier's private node fields through the cached method handles
+ * of {@link CommandNodeAccessor}, against the reflective {@link Field}s used previously.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeAccessBenchmark {
+
+    private static final Field CHILDREN_FIELD;
+    private static final Field LITERALS_FIELD;
+    private static final Field ARGUMENTS_FIELD;
+    private static final Field COMMAND_FIELD;
+
+    static {
+        try {
+            CHILDREN_FIELD = CommandNode.class.getDeclaredField("children");
+            CHILDREN_FIELD.setAccessible(true);
+            LITERALS_FIELD = CommandNode.class.getDeclaredField("literals");
+            LITERALS_FIELD.setAccessible(true);
+            ARGUMENTS_FIELD = CommandNode.class.getDeclaredField("arguments");
+            ARGUMENTS_FIELD.setAccessible(true);
+            COMMAND_FIELD = CommandNode.class.getDeclaredField("command");
+            COMMAND_FIELD.setAccessible(true);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // alternated between, so every set is a write
+    private static final Command<Object> COMMAND_A = context -> 0;
+    private static final Command<Object> COMMAND_B = context -> 1;
+
+    private RootCommandNode<Object> root;
+    private LiteralCommandNode<Object> child;
+    private boolean flip = false;
+
+    @Setup
+    public void setUp() {
+        this.root = new RootCommandNode<>();
+        this.child = LiteralArgumentBuilder.<Object>literal("bench").build();
+        this.root.addChild(this.child);
+    }
+
+    private Command<Object> nextCommand() {
+        this.flip = !this.flip;
+        return this.flip ? COMMAND_A : COMMAND_B;
+    }
+
+    @Benchmark
+    public Map<String, ?> childrenMethodHandle() {
+        return CommandNodeAccessor.children(this.root);
+    }
+
+    @Benchmark
+    public Object childrenField() throws IllegalAccessException {
+        return CHILDREN_FIELD.get(this.root);
+    }
+
+    @Benchmark
+    public CommandNode<?> setCommandMethodHandle() {
+        CommandNodeAccessor.setCommand(this.child, nextCommand());
+        return this.child;
+    }
+
+    @Benchmark
+    public CommandNode<?> setCommandField() throws IllegalAccessException {
+        COMMAND_FIELD.set(this.child, nextCommand());
+        return this.child;
+    }
+
+    @Benchmark
+    public RootCommandNode<?> removeChildMethodHandle() {
+        CommandNodeAccessor.removeChild(this.root, "bench");
+        this.root.addChild(this.child);
+        return this.root;
+    }
+
+    @Benchmark
+    public RootCommandNode<?> removeChildField() throws IllegalAccessException {
+        ((Map<?, ?>) CHILDREN_FIELD.get(this.root)).remove("bench");
+        ((Map<?, ?>) LITERALS_FIELD.get(this.root)).remove("bench");
+        ((Map<?, ?>) ARGUMENTS_FIELD.get(this.root)).remove("bench");
+        this.root.addChild(this.child);
+        return this.root;
+    }
+
+}
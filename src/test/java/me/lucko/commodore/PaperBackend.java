@@ -0,0 +1,164 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.destroystokyo.paper.event.brigadier.AsyncPlayerSendCommandsEvent;
+import com.mojang.brigadier.tree.CommandNode;
+import com.mojang.brigadier.tree.RootCommandNode;
+
+import me.lucko.commodore.harness.StandInPlayer;
+import me.lucko.commodore.harness.StandInPlugin;
+import me.lucko.commodore.harness.StandInServer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Simulates a Paper server, which sends command trees from its network threads.
+ *
+ * <p>Each send builds a new root containing the server's own nodes and the Bukkit nodes
+ * for the commands the player can use, then calls {@link AsyncPlayerSendCommandsEvent}
+ * on the calling thread. Every commodore-registered command the player can use should
+ * then be represented by commodore's node.</p>
+ *
+ * <p>When shared, commands are registered by two plugins, each with its own commodore
+ * instance, and the second contributes to the runtime published by the first.</p>
+ */
+final class PaperBackend extends SimulatedBackend {
+    private final boolean shared;
+    private final List<StandInPlugin> plugins = new ArrayList<>();
+    private final List<PaperCommodore> commodores = new ArrayList<>();
+
+    PaperBackend(StandInServer server, LoadSimulationTest.Options options, ExecutorService workers, boolean shared) {
+        super(server, options, workers);
+        this.shared = shared;
+        this.plugins.add(new StandInPlugin(server, "Harness"));
+        if (shared) {
+            this.plugins.add(new StandInPlugin(server, "Harness2"));
+        }
+    }
+
+    @Override
+    String getName() {
+        return this.shared ? "paper-shared" : "paper";
+    }
+
+    @Override
+    List<StandInPlugin> getPlugins() {
+        return this.plugins;
+    }
+
+    @Override
+    void setUp(Scenario scenario) {
+        this.scenario = scenario;
+        CommodoreOptions options = CommodoreOptions.builder().sharedRuntime(this.shared).build();
+        this.server.runOnMainThread(() -> {
+            for (StandInPlugin plugin : this.plugins) {
+                this.commodores.add(new PaperCommodore(plugin.asPlugin(), options));
+            }
+            for (Scenario.CommandSpec spec : scenario.getCommands()) {
+                register(getCommodore(spec), spec);
+            }
+        });
+    }
+
+    private PaperCommodore getCommodore(Scenario.CommandSpec spec) {
+        return this.commodores.get(this.plugins.indexOf(spec.owner));
+    }
+
+    @Override
+    void send(StandInPlayer player) {
+        started();
+        try {
+            sendAsync(player);
+        } finally {
+            completed();
+        }
+    }
+
+    @Override
+    void updateCommands(StandInPlayer player) {
+        // paper sends the tree from a network thread
+        started();
+        this.workers.execute(() -> {
+            try {
+                sendAsync(player);
+            } finally {
+                completed();
+            }
+        });
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private void sendAsync(StandInPlayer player) {
+        synchronized (player) {
+            Set<String> permissions = player.getPermissions();
+
+            RootCommandNode<Object> root = new RootCommandNode<>();
+            for (String name : Scenario.VANILLA) {
+                root.addChild(vanillaNode(name));
+            }
+            for (Scenario.CommandSpec spec : this.scenario.getCommands()) {
+                if (spec.permits(permissions)) {
+                    for (String name : spec.names) {
+                        root.addChild(bukkitNode(name));
+                    }
+                }
+            }
+
+            AsyncPlayerSendCommandsEvent event = new AsyncPlayerSendCommandsEvent(player.asPlayer(), root, false);
+            long start = System.nanoTime();
+            this.server.pluginManager().callEvent(event);
+            record(System.nanoTime() - start);
+
+            Set<String> sent = new HashSet<>();
+            for (CommandNode<Object> child : root.getChildren()) {
+                String name = child.getName();
+                sent.add(name);
+                if (this.scenario.getCommand(name) != null && !isRegistered(child)) {
+                    this.scenario.fail("send: " + player + " was sent the server's node for /" + name);
+                }
+            }
+            this.scenario.check("send", player, this.scenario.expected(permissions), sent);
+            player.setLastSent(sent);
+        }
+    }
+
+    @Override
+    void reregister(Scenario.CommandSpec spec) {
+        register(getCommodore(spec), spec);
+    }
+
+    @Override
+    void requestResend(StandInPlayer player) {
+        // the instance handling sends, which is the owner of the shared runtime if there is one
+        this.commodores.get(0).requestResend(player.asPlayer());
+    }
+
+}
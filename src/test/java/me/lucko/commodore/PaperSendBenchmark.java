@@ -0,0 +1,116 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.destroystokyo.paper.event.brigadier.AsyncPlayerSendCommandsEvent;
+import com.mojang.brigadier.tree.RootCommandNode;
+
+import me.lucko.commodore.harness.SyntheticTrees;
+
+import org.bukkit.command.PluginCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link PaperCommodore} adding its nodes to the tree sent to a player.
+ *
+ * <p>Each invocation sends the tree to the next of the fixture's players, so every
+ * permission signature is exercised. The cost of creating the root node being sent
+ * is measured by {@link #baseline()}.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaperSendBenchmark {
+
+    @Param({"2", "4"})
+    public int width;
+
+    @Param({"2", "3"})
+    public int depth;
+
+    @Param({"0", "3"})
+    public int aliases;
+
+    private Fixture fixture;
+    private PaperCommodore commodore;
+
+    @Setup
+    public void setUp() {
+        this.fixture = new Fixture("PaperBenchmark", this.aliases);
+        this.commodore = this.fixture.server.callOnMainThread(() -> {
+            PaperCommodore commodore = new PaperCommodore(this.fixture.plugin.asPlugin(), CommodoreOptions.defaults());
+            for (PluginCommand command : this.fixture.commands) {
+                commodore.register(command, SyntheticTrees.build(command.getName(), this.width, this.depth));
+            }
+            return commodore;
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.fixture.tearDown();
+    }
+
+    @Benchmark
+    public RootCommandNode<?> baseline() {
+        return this.fixture.newRoot(this.fixture.nextPlayer());
+    }
+
+    @Benchmark
+    public RootCommandNode<?> apply() {
+        int player = this.fixture.nextPlayer();
+        RootCommandNode<Object> root = this.fixture.newRoot(player);
+        this.commodore.apply(this.fixture.players[player].asPlayer(), root);
+        return root;
+    }
+
+    @Benchmark
+    @SuppressWarnings({"rawtypes", "unchecked", "deprecation"})
+    public RootCommandNode<?> onPlayerSendCommandsEvent() {
+        int player = this.fixture.nextPlayer();
+        RootCommandNode<Object> root = this.fixture.newRoot(player);
+        // called from the benchmark thread, so the event is asynchronous like on a network thread
+        this.commodore.onPlayerSendCommandsEvent(new AsyncPlayerSendCommandsEvent(this.fixture.players[player].asPlayer(), root, false));
+        return root;
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.suggestion.SuggestionProvider;
+import com.mojang.brigadier.tree.CommandNode;
+import com.mojang.brigadier.tree.RootCommandNode;
+
+import me.lucko.commodore.harness.StandInPlayer;
+import me.lucko.commodore.harness.StandInPlugin;
+import me.lucko.commodore.harness.StandInServer;
+
+import org.bukkit.command.Command;
+import org.bukkit.event.player.PlayerCommandSendEvent;
+import org.bukkit.event.server.ServerLoadEvent;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Simulates a CraftBukkit server, which sends command trees from the main thread.
+ *
+ * <p>Commodore registers its nodes into the server's dispatcher. Each send collects the
+ * names of the dispatcher's nodes the player can use, as the server does, including the
+ * {@code minecraft:} prefixed names the server adds for commodore's nodes, then calls
+ * {@link PlayerCommandSendEvent} on the main thread. Requests to send a tree from other
+ * threads wait for the main thread, like players joining at once would.</p>
+ */
+final class ReflectionBackend extends SimulatedBackend {
+    private final StandInPlugin plugin;
+    private final Internals internals = new Internals();
+    private ReflectionCommodore commodore;
+
+    ReflectionBackend(StandInServer server, LoadSimulationTest.Options options, ExecutorService workers) {
+        super(server, options, workers);
+        this.plugin = new StandInPlugin(server, "Harness");
+    }
+
+    @Override
+    String getName() {
+        return "reflection";
+    }
+
+    @Override
+    List<StandInPlugin> getPlugins() {
+        return Collections.singletonList(this.plugin);
+    }
+
+    @Override
+    void setUp(Scenario scenario) {
+        this.scenario = scenario;
+        this.server.runOnMainThread(() -> {
+            this.internals.dispatcher = createDispatcher();
+            this.commodore = new ReflectionCommodore(this.plugin.asPlugin(), CommodoreOptions.defaults(), this.internals);
+            for (Scenario.CommandSpec spec : scenario.getCommands()) {
+                register(this.commodore, spec);
+            }
+        });
+    }
+
+    /**
+     * Creates the dispatcher of a freshly (re)loaded server, with the server's own nodes
+     * and a Bukkit node for every command.
+     *
+     * @return the dispatcher
+     */
+    private CommandDispatcher<Object> createDispatcher() {
+        CommandDispatcher<Object> dispatcher = new CommandDispatcher<>();
+        for (String name : Scenario.VANILLA) {
+            dispatcher.getRoot().addChild(vanillaNode(name));
+        }
+        for (Scenario.CommandSpec spec : this.scenario.getCommands()) {
+            for (String name : spec.names) {
+                dispatcher.getRoot().addChild(bukkitNode(name));
+            }
+        }
+        return dispatcher;
+    }
+
+    private RootCommandNode<Object> getRoot() {
+        return this.internals.dispatcher.getRoot();
+    }
+
+    @Override
+    void send(StandInPlayer player) {
+        started();
+        try {
+            this.server.runOnMainThread(() -> sendSync(player));
+        } finally {
+            completed();
+        }
+    }
+
+    @Override
+    void updateCommands(StandInPlayer player) {
+        // called on the main thread by commodore, the tree is sent straight away
+        send(player);
+    }
+
+    private void sendSync(StandInPlayer player) {
+        synchronized (player) {
+            Set<String> permissions = player.getPermissions();
+
+            Set<String> commands = new LinkedHashSet<>();
+            for (CommandNode<Object> child : getRoot().getChildren()) {
+                String name = child.getName();
+                if (isBukkitNode(child)) {
+                    // bukkit's nodes require permission to use the command
+                    Scenario.CommandSpec spec = this.scenario.getCommand(name);
+                    if (spec == null || spec.permits(permissions)) {
+                        commands.add(name);
+                    }
+                } else {
+                    commands.add(name);
+                    if (isRegistered(child)) {
+                        // the server thinks nodes it didn't add are vanilla commands
+                        commands.add("minecraft:" + name);
+                    }
+                }
+            }
+
+            PlayerCommandSendEvent event = new PlayerCommandSendEvent(player.asPlayer(), commands);
+            long start = System.nanoTime();
+            this.server.pluginManager().callEvent(event);
+            record(System.nanoTime() - start);
+
+            Set<String> sent = new HashSet<>(event.getCommands());
+            this.scenario.check("send", player, this.scenario.expected(permissions), sent);
+            player.setLastSent(sent);
+        }
+    }
+
+    @Override
+    void reregister(Scenario.CommandSpec spec) {
+        register(this.commodore, spec);
+    }
+
+    @Override
+    void requestResend(StandInPlayer player) {
+        this.commodore.requestResend(player.asPlayer());
+    }
+
+    @Override
+    void reload() {
+        this.server.runOnMainThread(() -> {
+            this.internals.dispatcher = createDispatcher();
+            this.server.pluginManager().callEvent(new ServerLoadEvent(ServerLoadEvent.LoadType.RELOAD));
+        });
+    }
+
+    @Override
+    void verify() {
+        this.server.runOnMainThread(() -> {
+            RootCommandNode<Object> root = getRoot();
+            for (Scenario.CommandSpec spec : this.scenario.getCommands()) {
+                // lazily registered trees are only added once a player who can see them is sent them
+                boolean built = !spec.lazy || spec.builds.get() != 0;
+                for (String name : spec.names) {
+                    CommandNode<Object> node = root.getChild(name);
+                    if (node == null || (built ? !isRegistered(node) : !isBukkitNode(node))) {
+                        this.scenario.fail("dispatcher: /" + name + " is " + (node == null ? "missing" : "the wrong node") + " after the simulation");
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * The server's internals, with a dispatcher which is replaced when the server reloads.
+     *
+     * <p>Like the server, the suggestions for Bukkit commands may only be requested from
+     * the main thread, as they are provided by calling the command's tab completer.</p>
+     */
+    private final class Internals implements CraftServerAccess {
+        private volatile CommandDispatcher<Object> dispatcher = new CommandDispatcher<>();
+
+        @Override
+        public CommandDispatcher<?> getDispatcher() {
+            return this.dispatcher;
+        }
+
+        @Override
+        public SuggestionProvider<?> createCommandWrapper(Command command) {
+            return (context, builder) -> {
+                if (!ReflectionBackend.this.server.isPrimaryThread()) {
+                    throw new IllegalStateException("Asynchronous tab complete of /" + command.getName());
+                }
+                return builder.buildFuture();
+            };
+        }
+    }
+
+}
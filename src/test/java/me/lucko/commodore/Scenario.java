@@ -0,0 +1,256 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import me.lucko.commodore.harness.StandInPlayer;
+import me.lucko.commodore.harness.StandInPlugin;
+import me.lucko.commodore.harness.StandInServer;
+
+import org.bukkit.command.PluginCommand;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The commands and players of a simulation, and the command names each player should be sent.
+ *
+ * <p>Command {@code i} requires the permission {@code harness.tier.<i % (tiers + 1)>}, or
+ * no permission for the last tier. Players start in one of a fixed number of groups, each
+ * with its own set of tiers, so most players share their permissions with many others.</p>
+ */
+final class Scenario {
+
+    /**
+     * The commands registered by the server itself, which commodore should leave alone.
+     */
+    static final List<String> VANILLA = Collections.unmodifiableList(Arrays.asList("help", "list", "me", "msg", "say", "tell"));
+
+    // the maximum number of failures to keep the details of
+    private static final int MAX_FAILURES = 20;
+
+    private final LoadSimulationTest.Options options;
+    private final List<CommandSpec> commands = new ArrayList<>();
+    private final Map<String, CommandSpec> commandsByName = new HashMap<>();
+    private final List<Set<String>> groups = new ArrayList<>();
+    private final List<StandInPlayer> players = new ArrayList<>();
+
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final Queue<String> failures = new ConcurrentLinkedQueue<>();
+
+    Scenario(StandInServer server, LoadSimulationTest.Options options, List<StandInPlugin> plugins) {
+        this.options = options;
+
+        for (int i = 0; i < options.commands; i++) {
+            StandInPlugin owner = plugins.get(i % plugins.size());
+            int tier = i % (options.tiers + 1);
+            String permission = tier == options.tiers ? null : "harness.tier." + tier;
+            boolean lazy = options.lazyEvery != 0 && i % options.lazyEvery == options.lazyEvery - 1;
+            CommandSpec spec = new CommandSpec(owner, "cmd" + i, options.aliases, permission, lazy);
+            this.commands.add(spec);
+            for (String name : spec.names) {
+                this.commandsByName.put(name, spec);
+            }
+        }
+
+        // the first group has no permissions and the last has all of them
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < options.groups; i++) {
+            Set<String> permissions = new HashSet<>();
+            for (int tier = 0; tier < options.tiers; tier++) {
+                if (i == options.groups - 1 || (i != 0 && random.nextBoolean())) {
+                    permissions.add("harness.tier." + tier);
+                }
+            }
+            this.groups.add(Collections.unmodifiableSet(permissions));
+        }
+
+        for (int i = 0; i < options.players; i++) {
+            UUID uniqueId = new UUID(0, i);
+            StandInPlayer player = new StandInPlayer(server, uniqueId, "player" + i, this.groups.get(i % this.groups.size()));
+            this.players.add(player);
+            server.join(player);
+        }
+    }
+
+    List<CommandSpec> getCommands() {
+        return this.commands;
+    }
+
+    List<StandInPlayer> getPlayers() {
+        return this.players;
+    }
+
+    /**
+     * Gets the command with the given name or alias.
+     *
+     * @param name the name
+     * @return the command, or null
+     */
+    CommandSpec getCommand(String name) {
+        return this.commandsByName.get(name);
+    }
+
+    /**
+     * Picks new permissions for a player: either those of another group, or their
+     * current permissions with one tier added or removed.
+     *
+     * @param current the player's current permissions
+     * @return the new permissions
+     */
+    Set<String> randomPermissions(Set<String> current) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextBoolean()) {
+            return this.groups.get(random.nextInt(this.groups.size()));
+        }
+        Set<String> permissions = new HashSet<>(current);
+        String permission = "harness.tier." + random.nextInt(Math.max(1, this.options.tiers));
+        if (!permissions.remove(permission)) {
+            permissions.add(permission);
+        }
+        return permissions;
+    }
+
+    /**
+     * Gets the command names a player with the given permissions should be sent.
+     *
+     * @param permissions the permissions
+     * @return the command names
+     */
+    Set<String> expected(Set<String> permissions) {
+        Set<String> names = new HashSet<>(VANILLA);
+        for (CommandSpec command : this.commands) {
+            if (command.permits(permissions)) {
+                names.addAll(command.names);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Checks the command names a player was sent.
+     *
+     * @param context what was being checked
+     * @param player the player
+     * @param expected the names the player should have been sent
+     * @param actual the names the player was sent
+     */
+    void check(String context, StandInPlayer player, Set<String> expected, Set<String> actual) {
+        this.checks.incrementAndGet();
+        if (expected.equals(actual)) {
+            return;
+        }
+
+        Set<String> missing = new TreeSet<>(expected);
+        missing.removeAll(actual);
+        Set<String> unexpected = new TreeSet<>(actual);
+        unexpected.removeAll(expected);
+        fail(context + ": " + player + " was sent the wrong commands, missing " + missing + ", unexpected " + unexpected);
+    }
+
+    /**
+     * Records a failure.
+     *
+     * @param message the details of the failure
+     */
+    void fail(String message) {
+        if (this.failureCount.incrementAndGet() <= MAX_FAILURES) {
+            this.failures.add(message);
+        }
+    }
+
+    long getChecks() {
+        return this.checks.get();
+    }
+
+    long getFailureCount() {
+        return this.failureCount.get();
+    }
+
+    List<String> getFailures() {
+        return new ArrayList<>(this.failures);
+    }
+
+    /**
+     * A command registered with commodore during the simulation.
+     */
+    static final class CommandSpec {
+        final StandInPlugin owner;
+        final PluginCommand command;
+        // the permission required, or null
+        final String permission;
+        // the label and aliases, with and without the fallback prefix
+        final List<String> names;
+        // if the tree is registered with a supplier, and only built when first sent
+        final boolean lazy;
+        // the number of times the tree of the latest lazy registration was built
+        volatile AtomicInteger builds = new AtomicInteger();
+
+        CommandSpec(StandInPlugin owner, String label, int aliases, String permission, boolean lazy) {
+            List<String> aliasList = new ArrayList<>(aliases);
+            for (int i = 0; i < aliases; i++) {
+                aliasList.add(label + "a" + i);
+            }
+            this.owner = owner;
+            this.command = owner.createCommand(label, aliasList, permission);
+            this.permission = permission;
+            this.lazy = lazy;
+
+            String prefix = owner.getName().toLowerCase(Locale.ROOT) + ":";
+            List<String> names = new ArrayList<>();
+            names.add(label);
+            names.add(prefix + label);
+            for (String alias : aliasList) {
+                names.add(alias);
+                names.add(prefix + alias);
+            }
+            this.names = Collections.unmodifiableList(names);
+        }
+
+        String getName() {
+            return this.command.getName();
+        }
+
+        boolean permits(Set<String> permissions) {
+            return this.permission == null || permissions.contains(this.permission);
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.Command;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.tree.CommandNode;
+import com.mojang.brigadier.tree.LiteralCommandNode;
+
+import me.lucko.commodore.harness.LatencyRecorder;
+import me.lucko.commodore.harness.StandInPlayer;
+import me.lucko.commodore.harness.StandInPlugin;
+import me.lucko.commodore.harness.StandInServer;
+import me.lucko.commodore.harness.SyntheticTrees;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends players their command tree in the way a server using one of the commodore
+ * implementations would, and checks the result.
+ */
+abstract class SimulatedBackend {
+
+    // the command of nodes added by the server itself
+    static final Command<Object> VANILLA_COMMAND = context -> 0;
+    // the command of nodes added by Bukkit for plugin commands, which commodore replaces
+    static final Command<Object> BUKKIT_COMMAND = context -> 0;
+
+    final StandInServer server;
+    final LoadSimulationTest.Options options;
+    final ExecutorService workers;
+    Scenario scenario;
+
+    // the recorder for the current phase
+    private volatile LatencyRecorder recorder = new LatencyRecorder();
+    // the number of sends which have been requested but not completed
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // when a send was last started or completed
+    private volatile long lastActivity = System.nanoTime();
+
+    SimulatedBackend(StandInServer server, LoadSimulationTest.Options options, ExecutorService workers) {
+        this.server = server;
+        this.options = options;
+        this.workers = workers;
+    }
+
+    /**
+     * Gets the name of the backend.
+     *
+     * @return the name
+     */
+    abstract String getName();
+
+    /**
+     * Gets the plugins which register commands.
+     *
+     * @return the plugins
+     */
+    abstract List<StandInPlugin> getPlugins();
+
+    /**
+     * Creates the commodore instances, and registers every command.
+     *
+     * @param scenario the scenario
+     */
+    abstract void setUp(Scenario scenario);
+
+    /**
+     * Sends a player their command tree, waiting for it to be sent, and checks the result.
+     *
+     * @param player the player
+     */
+    abstract void send(StandInPlayer player);
+
+    /**
+     * Sends a player their command tree, as requested by {@link org.bukkit.entity.Player#updateCommands()}.
+     *
+     * @param player the player
+     */
+    abstract void updateCommands(StandInPlayer player);
+
+    /**
+     * Registers a command again, with a new tree. Called on the main thread.
+     *
+     * @param spec the command
+     */
+    abstract void reregister(Scenario.CommandSpec spec);
+
+    /**
+     * Requests that a player is resent their command tree.
+     *
+     * @param player the player
+     */
+    abstract void requestResend(StandInPlayer player);
+
+    /**
+     * Reloads the server, if the backend is affected by reloads.
+     */
+    void reload() {
+
+    }
+
+    /**
+     * Checks the state of the backend once the simulation has settled.
+     */
+    void verify() {
+
+    }
+
+    /**
+     * Disables the plugins, unregistering everything.
+     */
+    void tearDown() {
+        for (StandInPlugin plugin : getPlugins()) {
+            this.server.pluginManager().disablePlugin(plugin.asPlugin());
+        }
+    }
+
+    /**
+     * Registers a command with a commodore instance.
+     *
+     * @param commodore the commodore instance
+     * @param spec the command
+     */
+    void register(Commodore commodore, Scenario.CommandSpec spec) {
+        if (!spec.lazy) {
+            commodore.register(spec.command, SyntheticTrees.build(spec.getName(), this.options.width, this.options.depth));
+            return;
+        }
+
+        AtomicInteger builds = new AtomicInteger();
+        spec.builds = builds;
+        commodore.register(spec.command, () -> {
+            if (builds.incrementAndGet() > 1) {
+                this.scenario.fail("the tree of /" + spec.getName() + " was built more than once");
+            }
+            return SyntheticTrees.build(spec.getName(), this.options.width, this.options.depth);
+        }, spec.command::testPermissionSilent);
+    }
+
+    static LiteralCommandNode<Object> vanillaNode(String name) {
+        return LiteralArgumentBuilder.<Object>literal(name).executes(VANILLA_COMMAND).build();
+    }
+
+    static LiteralCommandNode<Object> bukkitNode(String name) {
+        return LiteralArgumentBuilder.<Object>literal(name).executes(BUKKIT_COMMAND).build();
+    }
+
+    static boolean isBukkitNode(CommandNode<?> node) {
+        return node.getCommand() == BUKKIT_COMMAND;
+    }
+
+    /**
+     * Gets if a node was registered by commodore, either directly or as a redirect for an alias.
+     *
+     * @param node the node
+     * @return true if registered by commodore
+     */
+    static boolean isRegistered(CommandNode<?> node) {
+        if (node.getCommand() == AbstractCommodore.DUMMY_COMMAND) {
+            return true;
+        }
+        CommandNode<?> redirect = node.getRedirect();
+        return redirect != null && redirect.getCommand() == AbstractCommodore.DUMMY_COMMAND;
+    }
+
+    /**
+     * Starts a new phase, returning the recorder of the previous one.
+     *
+     * @return the recorder of the previous phase
+     */
+    LatencyRecorder nextPhase() {
+        LatencyRecorder previous = this.recorder;
+        this.recorder = new LatencyRecorder();
+        return previous;
+    }
+
+    void record(long nanos) {
+        this.recorder.record(nanos);
+    }
+
+    void started() {
+        this.inFlight.incrementAndGet();
+        this.lastActivity = System.nanoTime();
+    }
+
+    void completed() {
+        this.lastActivity = System.nanoTime();
+        this.inFlight.decrementAndGet();
+    }
+
+    /**
+     * Gets if no sends are in progress, and none have started within the given time.
+     *
+     * @param idleNanos the time
+     * @return true if idle
+     */
+    boolean isIdle(long idleNanos) {
+        return this.inFlight.get() == 0 && System.nanoTime() - this.lastActivity > idleNanos;
+    }
+
+}
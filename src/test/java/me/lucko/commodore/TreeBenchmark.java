@@ -0,0 +1,115 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore;
+
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.tree.CommandNode;
+import com.mojang.brigadier.tree.LiteralCommandNode;
+import com.mojang.brigadier.tree.RootCommandNode;
+
+import me.lucko.commodore.harness.SyntheticTrees;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the tree operations used when registering commands and sending them to players.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeBenchmark {
+
+    @Param({"2", "4"})
+    public int width;
+
+    @Param({"2", "3", "5"})
+    public int depth;
+
+    // a registered command tree
+    private LiteralCommandNode<Object> tree;
+
+    // a root with a child for each command, which are removed and added again in turn
+    private RootCommandNode<Object> root;
+    private LiteralCommandNode<?>[] children;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        this.tree = SyntheticTrees.build("bench", this.width, this.depth);
+
+        this.root = new RootCommandNode<>();
+        this.children = new LiteralCommandNode<?>[Fixture.COMMANDS];
+        for (int i = 0; i < this.children.length; i++) {
+            LiteralCommandNode<Object> child = LiteralArgumentBuilder.<Object>literal("cmd" + i).build();
+            this.children[i] = child;
+            this.root.addChild(child);
+        }
+    }
+
+    @Benchmark
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public RootCommandNode<?> removeChild() {
+        LiteralCommandNode child = this.children[this.next];
+        this.next = (this.next + 1) % this.children.length;
+        AbstractCommodore.removeChild(this.root, child.getName());
+        this.root.addChild(child);
+        return this.root;
+    }
+
+    /**
+     * Prepares the registered tree to be sent to players.
+     *
+     * <p>After the first invocation every node is already prepared, so this measures
+     * the walk over the tree, as when a prepared tree is registered again.</p>
+     *
+     * @return the visited nodes
+     */
+    @Benchmark
+    public Set<?> setRequiredHackyFields() {
+        Set<CommandNode<?>> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        AbstractCommodore.setRequiredHackyFields(this.tree, AbstractCommodore.DUMMY_SUGGESTION_PROVIDER, provider -> provider, visited);
+        return visited;
+    }
+
+}
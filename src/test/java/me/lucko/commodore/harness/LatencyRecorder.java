@@ -0,0 +1,141 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore.harness;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records latencies from many threads, without contention between them.
+ *
+ * <p>Each thread records into its own buffer, and the buffers are only merged
+ * when a {@link Summary} is taken, once the recording threads are done.</p>
+ */
+public final class LatencyRecorder {
+    private final Queue<Samples> samples = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Samples> local = ThreadLocal.withInitial(() -> {
+        Samples samples = new Samples();
+        this.samples.add(samples);
+        return samples;
+    });
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        this.local.get().add(nanos);
+    }
+
+    /**
+     * Summarises the latencies recorded so far.
+     *
+     * @param wallNanos the wall clock time the latencies were recorded over
+     * @return the summary
+     */
+    public Summary summarize(long wallNanos) {
+        int count = 0;
+        for (Samples samples : this.samples) {
+            count += samples.size;
+        }
+        long[] all = new long[count];
+        int i = 0;
+        for (Samples samples : this.samples) {
+            System.arraycopy(samples.values, 0, all, i, samples.size);
+            i += samples.size;
+        }
+        Arrays.sort(all);
+        return new Summary(all, wallNanos);
+    }
+
+    private static final class Samples {
+        private long[] values = new long[1024];
+        private int size = 0;
+
+        void add(long value) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.values[this.size++] = value;
+        }
+    }
+
+    /**
+     * The throughput and latency percentiles of a set of recorded latencies.
+     */
+    public static final class Summary {
+        private final long[] sorted;
+        private final long wallNanos;
+
+        Summary(long[] sorted, long wallNanos) {
+            this.sorted = sorted;
+            this.wallNanos = wallNanos;
+        }
+
+        public int getCount() {
+            return this.sorted.length;
+        }
+
+        /**
+         * Gets the number of latencies recorded per second of wall clock time.
+         *
+         * @return the throughput
+         */
+        public double getThroughput() {
+            return this.wallNanos == 0 ? 0 : this.sorted.length / (this.wallNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        /**
+         * Gets a percentile of the recorded latencies.
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return the latency in nanoseconds, or 0 if none were recorded
+         */
+        public long getPercentile(double percentile) {
+            if (this.sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * this.sorted.length) - 1;
+            return this.sorted[Math.max(0, Math.min(index, this.sorted.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d in %.2fs (%.0f/s), latency p50 %s, p90 %s, p99 %s, p99.9 %s, max %s",
+                    this.sorted.length, this.wallNanos / 1e9, getThroughput(),
+                    micros(getPercentile(50)), micros(getPercentile(90)), micros(getPercentile(99)),
+                    micros(getPercentile(99.9)), micros(getPercentile(100)));
+        }
+
+        private static String micros(long nanos) {
+            return String.format("%.1fus", nanos / 1e3);
+        }
+    }
+
+}
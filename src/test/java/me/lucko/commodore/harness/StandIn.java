@@ -0,0 +1,116 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore.harness;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates stand-in implementations of server interfaces.
+ *
+ * <p>Calls to the interface are forwarded to the public method with the same name and
+ * parameter types on a target object. Methods the target doesn't implement throw
+ * {@link UnsupportedOperationException}, so anything commodore relies on which the
+ * harness doesn't model fails loudly, instead of quietly returning a default.</p>
+ */
+public final class StandIn {
+    private StandIn() {
+        throw new AssertionError();
+    }
+
+    // the implementation of each interface method on each target class
+    private static final ClassValue<Map<Method, Optional<Method>>> IMPLEMENTATIONS = new ClassValue<Map<Method, Optional<Method>>>() {
+        @Override
+        protected Map<Method, Optional<Method>> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    /**
+     * Creates a stand-in which forwards calls to the given target.
+     *
+     * @param target the object implementing the methods
+     * @param type the interface to implement
+     * @param extraTypes any other interfaces to implement
+     * @param <T> the interface type
+     * @return the stand-in
+     */
+    public static <T> T create(Object target, Class<T> type, Class<?>... extraTypes) {
+        Class<?>[] types = new Class<?>[extraTypes.length + 1];
+        types[0] = type;
+        System.arraycopy(extraTypes, 0, types, 1, extraTypes.length);
+        return type.cast(Proxy.newProxyInstance(StandIn.class.getClassLoader(), types, new Handler(target)));
+    }
+
+    private static Method findImplementation(Class<?> targetClass, Method method) {
+        return IMPLEMENTATIONS.get(targetClass).computeIfAbsent(method, m -> {
+            try {
+                return Optional.of(targetClass.getMethod(m.getName(), m.getParameterTypes()));
+            } catch (NoSuchMethodException e) {
+                return Optional.empty();
+            }
+        }).orElse(null);
+    }
+
+    private static final class Handler implements InvocationHandler {
+        private final Object target;
+
+        Handler(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                // stand-ins are compared by identity, like the real implementations
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return this.target.toString();
+                }
+            }
+
+            Method implementation = findImplementation(this.target.getClass(), method);
+            if (implementation == null) {
+                throw new UnsupportedOperationException(method.getDeclaringClass().getSimpleName() + "#" + method.getName() + " is not modelled by the harness");
+            }
+            try {
+                return implementation.invoke(this.target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore.harness;
+
+import org.bukkit.entity.Player;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A stand-in for a player, with a set of permissions which can be changed at any time.
+ *
+ * <p>The permissions are replaced as a whole, so permission tests made from any thread
+ * see a consistent set. Calls to {@link Player#updateCommands()} are passed to the
+ * {@link StandInServer#setCommandSender(java.util.function.Consumer) command sender}
+ * of the server.</p>
+ */
+public final class StandInPlayer {
+    private final StandInServer server;
+    private final UUID uniqueId;
+    private final String name;
+    private final Player player = StandIn.create(this, Player.class);
+
+    private volatile Set<String> permissions;
+    private volatile boolean online = true;
+    // the command names the player was last sent, or null
+    private volatile Set<String> lastSent = null;
+
+    public StandInPlayer(StandInServer server, UUID uniqueId, String name, Set<String> permissions) {
+        this.server = server;
+        this.uniqueId = uniqueId;
+        this.name = name;
+        this.permissions = Collections.unmodifiableSet(new HashSet<>(permissions));
+    }
+
+    /**
+     * Gets the Bukkit view of this player.
+     *
+     * @return the player
+     */
+    public Player asPlayer() {
+        return this.player;
+    }
+
+    public Set<String> getPermissions() {
+        return this.permissions;
+    }
+
+    public void setPermissions(Set<String> permissions) {
+        this.permissions = Collections.unmodifiableSet(new HashSet<>(permissions));
+    }
+
+    public void setOnline(boolean online) {
+        this.online = online;
+    }
+
+    public Set<String> getLastSent() {
+        return this.lastSent;
+    }
+
+    public void setLastSent(Set<String> lastSent) {
+        this.lastSent = lastSent;
+    }
+
+    // Player
+
+    public UUID getUniqueId() {
+        return this.uniqueId;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public boolean hasPermission(String permission) {
+        return this.permissions.contains(permission);
+    }
+
+    public boolean isOnline() {
+        return this.online;
+    }
+
+    public void updateCommands() {
+        this.server.sendCommands(this);
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore.harness;
+
+import org.bukkit.Server;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.reflect.Constructor;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A stand-in for a plugin, which can create {@link PluginCommand}s owned by it.
+ */
+public final class StandInPlugin {
+
+    // PluginCommand's constructor is protected, commands are normally created by the plugin loader
+    private static final Constructor<PluginCommand> PLUGIN_COMMAND_CONSTRUCTOR;
+
+    static {
+        try {
+            PLUGIN_COMMAND_CONSTRUCTOR = PluginCommand.class.getDeclaredConstructor(String.class, Plugin.class);
+            PLUGIN_COMMAND_CONSTRUCTOR.setAccessible(true);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final StandInServer server;
+    private final String name;
+    private final Plugin plugin = StandIn.create(this, Plugin.class);
+    private final Logger logger;
+
+    public StandInPlugin(StandInServer server, String name) {
+        this.server = server;
+        this.name = name;
+        this.logger = Logger.getLogger(name);
+    }
+
+    /**
+     * Gets the Bukkit view of this plugin.
+     *
+     * @return the plugin
+     */
+    public Plugin asPlugin() {
+        return this.plugin;
+    }
+
+    /**
+     * Creates a command owned by this plugin.
+     *
+     * @param name the name of the command
+     * @param aliases the aliases of the command
+     * @param permission the permission required to use the command, or null
+     * @return the command
+     */
+    public PluginCommand createCommand(String name, List<String> aliases, String permission) {
+        PluginCommand command;
+        try {
+            command = PLUGIN_COMMAND_CONSTRUCTOR.newInstance(name, this.plugin);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+        command.setAliases(aliases);
+        command.setPermission(permission);
+        return command;
+    }
+
+    // Plugin
+
+    public String getName() {
+        return this.name;
+    }
+
+    public Server getServer() {
+        return this.server.asServer();
+    }
+
+    public boolean isEnabled() {
+        return this.server.pluginManager().isPluginEnabled(this.plugin);
+    }
+
+    public Logger getLogger() {
+        return this.logger;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+}
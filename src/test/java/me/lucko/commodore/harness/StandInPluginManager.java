@@ -0,0 +1,180 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore.harness;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A stand-in for the plugin manager, which calls {@link EventHandler} methods directly.
+ *
+ * <p>Like the server, events are checked against the thread they are called from:
+ * asynchronous events may not be called from the main thread, and synchronous events
+ * may only be called from the main thread.</p>
+ */
+public final class StandInPluginManager {
+    private final StandInServer server;
+    private final PluginManager pluginManager = StandIn.create(this, PluginManager.class);
+
+    // the registered handlers, in the order they are called
+    private final List<Handler> handlers = new CopyOnWriteArrayList<>();
+    private final Set<Plugin> disabled = ConcurrentHashMap.newKeySet();
+
+    StandInPluginManager(StandInServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Gets the Bukkit view of this plugin manager.
+     *
+     * @return the plugin manager
+     */
+    public PluginManager asPluginManager() {
+        return this.pluginManager;
+    }
+
+    /**
+     * Disables a plugin, calling {@link PluginDisableEvent} on the main thread and
+     * unregistering its listeners.
+     *
+     * @param plugin the plugin
+     */
+    public void disablePlugin(Plugin plugin) {
+        this.server.runOnMainThread(() -> {
+            if (!this.disabled.add(plugin)) {
+                return;
+            }
+            callEvent(new PluginDisableEvent(plugin));
+            this.handlers.removeIf(handler -> handler.plugin == plugin);
+            this.server.servicesManager().unregisterAll(plugin);
+        });
+    }
+
+    // PluginManager
+
+    public void registerEvents(Listener listener, Plugin plugin) {
+        List<Handler> handlers = new ArrayList<>();
+        for (Method method : listener.getClass().getMethods()) {
+            EventHandler annotation = method.getAnnotation(EventHandler.class);
+            if (annotation == null || method.getParameterCount() != 1 || !Event.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                continue;
+            }
+            // listeners are commonly private classes
+            method.setAccessible(true);
+            handlers.add(new Handler(listener, method, annotation, plugin));
+        }
+
+        synchronized (this) {
+            List<Handler> all = new ArrayList<>(this.handlers);
+            all.addAll(handlers);
+            // stable, so handlers with the same priority are called in registration order
+            all.sort(Comparator.comparingInt(handler -> handler.annotation.priority().ordinal()));
+            this.handlers.clear();
+            this.handlers.addAll(all);
+        }
+    }
+
+    public void callEvent(Event event) {
+        String name = event.getClass().getSimpleName();
+        if (event.isAsynchronous()) {
+            if (this.server.isPrimaryThread()) {
+                throw new IllegalStateException(name + " cannot be triggered asynchronously from primary server thread.");
+            }
+        } else if (!this.server.isPrimaryThread()) {
+            throw new IllegalStateException(name + " may only be triggered synchronously.");
+        }
+
+        for (Handler handler : this.handlers) {
+            if (!handler.eventType.isInstance(event)) {
+                continue;
+            }
+            try {
+                handler.method.invoke(handler.listener, event);
+            } catch (InvocationTargetException e) {
+                // like the server, a failing listener is logged and doesn't stop the event
+                this.server.recordError(e.getCause());
+            } catch (IllegalAccessException e) {
+                this.server.recordError(e);
+            }
+        }
+    }
+
+    public boolean isPluginEnabled(Plugin plugin) {
+        return !this.disabled.contains(plugin);
+    }
+
+    /**
+     * Gets the listeners registered by a plugin.
+     *
+     * @param plugin the plugin
+     * @return the listeners
+     */
+    public List<Listener> getListeners(Plugin plugin) {
+        List<Listener> listeners = new ArrayList<>();
+        for (Handler handler : this.handlers) {
+            if (handler.plugin == plugin && !listeners.contains(handler.listener)) {
+                listeners.add(handler.listener);
+            }
+        }
+        return Collections.unmodifiableList(listeners);
+    }
+
+    @Override
+    public String toString() {
+        return "StandInPluginManager";
+    }
+
+    private static final class Handler {
+        private final Listener listener;
+        private final Method method;
+        private final EventHandler annotation;
+        private final Class<?> eventType;
+        private final Plugin plugin;
+
+        Handler(Listener listener, Method method, EventHandler annotation, Plugin plugin) {
+            this.listener = listener;
+            this.method = method;
+            this.annotation = annotation;
+            this.eventType = method.getParameterTypes()[0];
+            this.plugin = plugin;
+        }
+    }
+
+}
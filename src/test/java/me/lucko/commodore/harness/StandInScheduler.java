@@ -0,0 +1,116 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore.harness;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stand-in for the scheduler, which runs tasks on the main thread of the {@link StandInServer}.
+ */
+final class StandInScheduler {
+    private final StandInServer server;
+    private final BukkitScheduler scheduler = StandIn.create(this, BukkitScheduler.class);
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    StandInScheduler(StandInServer server) {
+        this.server = server;
+    }
+
+    BukkitScheduler asScheduler() {
+        return this.scheduler;
+    }
+
+    // BukkitScheduler
+
+    public BukkitTask runTask(Plugin plugin, Runnable task) {
+        return runTaskLater(plugin, task, 0);
+    }
+
+    public BukkitTask runTaskLater(Plugin plugin, Runnable task, long delay) {
+        return new Task(plugin, this.server.schedule(task, delay)).asTask();
+    }
+
+    public BukkitTask runTaskTimer(Plugin plugin, Runnable task, long delay, long period) {
+        return new Task(plugin, this.server.scheduleTimer(task, delay, period)).asTask();
+    }
+
+    @Override
+    public String toString() {
+        return "StandInScheduler";
+    }
+
+    /**
+     * A scheduled task.
+     */
+    public final class Task {
+        private final BukkitTask task = StandIn.create(this, BukkitTask.class);
+        private final int id = StandInScheduler.this.nextId.incrementAndGet();
+        private final Plugin owner;
+        private final Future<?> future;
+
+        Task(Plugin owner, Future<?> future) {
+            this.owner = owner;
+            this.future = future;
+        }
+
+        BukkitTask asTask() {
+            return this.task;
+        }
+
+        // BukkitTask
+
+        public int getTaskId() {
+            return this.id;
+        }
+
+        public Plugin getOwner() {
+            return this.owner;
+        }
+
+        public boolean isSync() {
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return this.future.isCancelled();
+        }
+
+        public void cancel() {
+            this.future.cancel(false);
+        }
+
+        @Override
+        public String toString() {
+            return "Task(" + this.id + ")";
+        }
+    }
+
+}
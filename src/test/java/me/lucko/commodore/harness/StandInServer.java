@@ -0,0 +1,314 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore.harness;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.ServicesManager;
+import org.bukkit.scheduler.BukkitScheduler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * A stand-in for the server, with a single main thread which runs scheduled tasks
+ * and synchronous events.
+ *
+ * <p>The server is installed as the Bukkit singleton the first time it is requested,
+ * so there is only ever one per JVM. The reported version is 1.16.5, which is supported
+ * by both the Paper and the reflection implementations of commodore.</p>
+ */
+public final class StandInServer {
+
+    private static final String MINECRAFT_VERSION = "1.16.5";
+
+    private static StandInServer instance = null;
+
+    /**
+     * Gets the stand-in server, installing it as the Bukkit server on first use.
+     *
+     * @return the server
+     */
+    public static synchronized StandInServer get() {
+        if (instance == null) {
+            instance = new StandInServer();
+            Bukkit.setServer(instance.server);
+        }
+        return instance;
+    }
+
+    private final Server server = StandIn.create(this, Server.class);
+    private final Logger logger = Logger.getLogger("Harness");
+
+    private final ScheduledThreadPoolExecutor mainThread;
+    private volatile Thread primaryThread;
+    private volatile long tickNanos = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final StandInPluginManager pluginManager = new StandInPluginManager(this);
+    private final StandInScheduler scheduler = new StandInScheduler(this);
+    private final StandInServicesManager servicesManager = new StandInServicesManager();
+
+    private final Map<UUID, StandInPlayer> players = new ConcurrentHashMap<>();
+    // what happens when a player is (re)sent their command tree
+    private volatile Consumer<StandInPlayer> commandSender = player -> {};
+
+    // exceptions thrown by listeners and tasks
+    private final Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+
+    private StandInServer() {
+        this.mainThread = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "Server thread");
+            thread.setDaemon(true);
+            this.primaryThread = thread;
+            return thread;
+        });
+        this.mainThread.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Gets the Bukkit view of this server.
+     *
+     * @return the server
+     */
+    public Server asServer() {
+        return this.server;
+    }
+
+    /**
+     * Gets the stand-in plugin manager.
+     *
+     * @return the plugin manager
+     */
+    public StandInPluginManager pluginManager() {
+        return this.pluginManager;
+    }
+
+    /**
+     * Gets the stand-in services manager.
+     *
+     * @return the services manager
+     */
+    public StandInServicesManager servicesManager() {
+        return this.servicesManager;
+    }
+
+    /**
+     * Sets the length of a tick, which defaults to 50 milliseconds.
+     *
+     * @param tickNanos the length of a tick in nanoseconds
+     */
+    public void setTickNanos(long tickNanos) {
+        this.tickNanos = tickNanos;
+    }
+
+    /**
+     * Gets the length of a tick.
+     *
+     * @return the length of a tick in nanoseconds
+     */
+    public long getTickNanos() {
+        return this.tickNanos;
+    }
+
+    /**
+     * Sets what happens when a player is sent their command tree, e.g. by
+     * {@link Player#updateCommands()}.
+     *
+     * @param commandSender the action
+     */
+    public void setCommandSender(Consumer<StandInPlayer> commandSender) {
+        this.commandSender = commandSender;
+    }
+
+    void sendCommands(StandInPlayer player) {
+        this.commandSender.accept(player);
+    }
+
+    /**
+     * Adds a player to the server.
+     *
+     * @param player the player
+     */
+    public void join(StandInPlayer player) {
+        this.players.put(player.getUniqueId(), player);
+    }
+
+    /**
+     * Removes all players from the server.
+     */
+    public void clearPlayers() {
+        this.players.clear();
+    }
+
+    /**
+     * Runs the task on the main thread, and waits for it to complete.
+     *
+     * @param task the task
+     */
+    public void runOnMainThread(Runnable task) {
+        callOnMainThread(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs the task on the main thread, and waits for its result.
+     *
+     * @param task the task
+     * @param <T> the result type
+     * @return the result
+     */
+    public <T> T callOnMainThread(Callable<T> task) {
+        try {
+            if (isPrimaryThread()) {
+                return task.call();
+            }
+            return this.mainThread.submit(task).get();
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (Exception e) {
+            throw propagate(e);
+        }
+    }
+
+    Future<?> schedule(Runnable task, long delayTicks) {
+        return this.mainThread.schedule(guard(task), delayTicks * this.tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    Future<?> scheduleTimer(Runnable task, long delayTicks, long periodTicks) {
+        return this.mainThread.scheduleAtFixedRate(guard(task), delayTicks * this.tickNanos, Math.max(1, periodTicks) * this.tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Runnable guard(Runnable task) {
+        // like the server, a failing task is logged and doesn't stop the main thread
+        return () -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                recordError(e);
+            }
+        };
+    }
+
+    private static RuntimeException propagate(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new RuntimeException(e);
+    }
+
+    void recordError(Throwable e) {
+        this.errors.add(e);
+    }
+
+    /**
+     * Removes and returns the exceptions thrown by listeners and tasks so far.
+     *
+     * @return the exceptions
+     */
+    public List<Throwable> drainErrors() {
+        List<Throwable> errors = new ArrayList<>();
+        for (Throwable e; (e = this.errors.poll()) != null; ) {
+            errors.add(e);
+        }
+        return errors;
+    }
+
+    // Server
+
+    public PluginManager getPluginManager() {
+        return this.pluginManager.asPluginManager();
+    }
+
+    public BukkitScheduler getScheduler() {
+        return this.scheduler.asScheduler();
+    }
+
+    public ServicesManager getServicesManager() {
+        return this.servicesManager.asServicesManager();
+    }
+
+    public Collection<? extends Player> getOnlinePlayers() {
+        List<Player> players = new ArrayList<>(this.players.size());
+        for (StandInPlayer player : this.players.values()) {
+            players.add(player.asPlayer());
+        }
+        return players;
+    }
+
+    public Player getPlayer(UUID uniqueId) {
+        StandInPlayer player = this.players.get(uniqueId);
+        return player == null ? null : player.asPlayer();
+    }
+
+    public String getName() {
+        return "Harness";
+    }
+
+    public String getVersion() {
+        return "git-Harness (MC: " + MINECRAFT_VERSION + ")";
+    }
+
+    public String getBukkitVersion() {
+        return MINECRAFT_VERSION + "-R0.1-SNAPSHOT";
+    }
+
+    public Logger getLogger() {
+        return this.logger;
+    }
+
+    public boolean isPrimaryThread() {
+        return Thread.currentThread() == this.primaryThread;
+    }
+
+    @Override
+    public String toString() {
+        return "StandInServer";
+    }
+
+}
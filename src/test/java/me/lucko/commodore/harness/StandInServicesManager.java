@@ -0,0 +1,77 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore.harness;
+
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.RegisteredServiceProvider;
+import org.bukkit.plugin.ServicePriority;
+import org.bukkit.plugin.ServicesManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A stand-in for the services manager, which holds a single provider for each service.
+ */
+public final class StandInServicesManager {
+    private final ServicesManager servicesManager = StandIn.create(this, ServicesManager.class);
+    private final Map<Class<?>, RegisteredServiceProvider<?>> registrations = new LinkedHashMap<>();
+
+    StandInServicesManager() {
+
+    }
+
+    ServicesManager asServicesManager() {
+        return this.servicesManager;
+    }
+
+    // ServicesManager
+
+    public synchronized <T> void register(Class<T> service, T provider, Plugin plugin, ServicePriority priority) {
+        this.registrations.put(service, new RegisteredServiceProvider<>(service, provider, priority, plugin));
+    }
+
+    public synchronized void unregisterAll(Plugin plugin) {
+        this.registrations.values().removeIf(registration -> registration.getPlugin() == plugin);
+    }
+
+    public synchronized Collection<Class<?>> getKnownServices() {
+        return new ArrayList<>(this.registrations.keySet());
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized <T> RegisteredServiceProvider<T> getRegistration(Class<T> service) {
+        return (RegisteredServiceProvider<T>) this.registrations.get(service);
+    }
+
+    @Override
+    public String toString() {
+        return "StandInServicesManager";
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is part of commodore, licensed under the MIT License.
+ *
+ *  Copyright (c) lucko (Luck) <luck@lucko.me>
+ *  Copyright (c) contributors
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.commodore.harness;
+
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.builder.RequiredArgumentBuilder;
+import com.mojang.brigadier.tree.CommandNode;
+import com.mojang.brigadier.tree.LiteralCommandNode;
+
+/**
+ * Builds synthetic command trees of a given shape.
+ *
+ * <p>Each node below the root has {@code width} children, alternating between literal
+ * and argument nodes, down to {@code depth} levels. Trees built with the same shape are
+ * structurally identical, but share no nodes.</p>
+ */
+public final class SyntheticTrees {
+    private SyntheticTrees() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Builds a tree.
+     *
+     * @param name the literal of the root node
+     * @param width the number of children of each node
+     * @param depth the number of levels below the root
+     * @return the root node
+     */
+    public static LiteralCommandNode<Object> build(String name, int width, int depth) {
+        LiteralCommandNode<Object> root = LiteralArgumentBuilder.<Object>literal(name).build();
+        addChildren(root, width, depth);
+        return root;
+    }
+
+    /**
+     * Gets the number of nodes in a tree with the given shape, including the root.
+     *
+     * @param width the number of children of each node
+     * @param depth the number of levels below the root
+     * @return the number of nodes
+     */
+    public static long size(int width, int depth) {
+        long size = 1;
+        long level = 1;
+        for (int i = 0; i < depth; i++) {
+            level *= width;
+            size += level;
+        }
+        return size;
+    }
+
+    private static void addChildren(CommandNode<Object> parent, int width, int depth) {
+        if (depth == 0) {
+            return;
+        }
+        for (int i = 0; i < width; i++) {
+            CommandNode<Object> child = i % 2 == 0
+                    ? LiteralArgumentBuilder.<Object>literal("sub" + i).build()
+                    : RequiredArgumentBuilder.<Object, String>argument("arg" + i, StringArgumentType.word()).build();
+            addChildren(child, width, depth - 1);
+            parent.addChild(child);
+        }
+    }
+
+}